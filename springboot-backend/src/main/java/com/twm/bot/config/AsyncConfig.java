@@ -0,0 +1,30 @@
+package com.twm.bot.config;
+
+import com.twm.bot.util.Deadline;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+@EnableScheduling
+public class AsyncConfig {
+
+    // Runs the concurrent stages of a chat turn (FAQ match, intent, retrieval) off the STOMP inbound threads
+    @Bean
+    public ThreadPoolTaskExecutor botPipelineExecutor(@Value("${bot.pipeline.core-pool-size:16}") int corePoolSize,
+                                                      @Value("${bot.pipeline.max-pool-size:64}") int maxPoolSize,
+                                                      @Value("${bot.pipeline.queue-capacity:256}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(corePoolSize);
+        executor.setMaxPoolSize(maxPoolSize);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("bot-pipeline-");
+        // Stages see the deadline of the chat turn that started them
+        executor.setTaskDecorator(Deadline::propagate);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.initialize();
+        return executor;
+    }
+}
@@ -0,0 +1,41 @@
+package com.twm.bot.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.hc.core5.pool.ConnPoolControl;
+
+/**
+ * Exposes leased / available / pending / max connections of an HttpClient 5 pool,
+ * tagged with the pool name, e.g. {@code http.client.pool.leased{pool=openai}}.
+ */
+public class HttpClientPoolMetrics implements MeterBinder {
+
+    private final String poolName;
+    private final ConnPoolControl<?> pool;
+
+    public HttpClientPoolMetrics(String poolName, ConnPoolControl<?> pool) {
+        this.poolName = poolName;
+        this.pool = pool;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("http.client.pool.leased", pool, p -> p.getTotalStats().getLeased())
+                .tag("pool", poolName)
+                .description("Connections currently leased from the pool")
+                .register(registry);
+        Gauge.builder("http.client.pool.available", pool, p -> p.getTotalStats().getAvailable())
+                .tag("pool", poolName)
+                .description("Idle connections kept alive in the pool")
+                .register(registry);
+        Gauge.builder("http.client.pool.pending", pool, p -> p.getTotalStats().getPending())
+                .tag("pool", poolName)
+                .description("Requests waiting for a connection")
+                .register(registry);
+        Gauge.builder("http.client.pool.max", pool, p -> p.getTotalStats().getMax())
+                .tag("pool", poolName)
+                .description("Maximum connections allowed by the pool")
+                .register(registry);
+    }
+}
@@ -0,0 +1,64 @@
+package com.twm.bot.config;
+
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * One long-lived, pooled HttpClient shared by every call to api.openai.com,
+ * so a chat turn reuses keep-alive connections instead of doing a fresh TCP+TLS handshake per request.
+ */
+@Configuration
+public class OpenAIHttpClientConfig {
+
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager openAIConnectionManager(
+            @Value("${openai.http.max-total:64}") int maxTotal,
+            @Value("${openai.http.max-per-route:64}") int maxPerRoute,
+            @Value("${openai.http.connect-timeout:5s}") Duration connectTimeout,
+            @Value("${openai.http.response-timeout:60s}") Duration responseTimeout,
+            @Value("${openai.http.time-to-live:5m}") Duration timeToLive) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(responseTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient openAIHttpClient(
+            PoolingHttpClientConnectionManager openAIConnectionManager,
+            @Value("${openai.http.connection-request-timeout:5s}") Duration connectionRequestTimeout,
+            @Value("${openai.http.response-timeout:60s}") Duration responseTimeout,
+            @Value("${openai.http.idle-eviction:30s}") Duration idleEviction) {
+        return HttpClients.custom()
+                .setConnectionManager(openAIConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                        .setResponseTimeout(Timeout.of(responseTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .build();
+    }
+
+    @Bean
+    public HttpClientPoolMetrics openAIConnectionPoolMetrics(PoolingHttpClientConnectionManager openAIConnectionManager) {
+        return new HttpClientPoolMetrics("openai", openAIConnectionManager);
+    }
+}
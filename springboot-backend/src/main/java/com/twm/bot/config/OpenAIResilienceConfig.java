@@ -0,0 +1,66 @@
+package com.twm.bot.config;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+/**
+ * Circuit breaker around api.openai.com: trips when too many calls fail or are slow, so chat turns degrade
+ * immediately instead of every STOMP thread hanging on a struggling upstream.
+ */
+@Configuration
+public class OpenAIResilienceConfig {
+
+    @Bean
+    public CircuitBreakerRegistry circuitBreakerRegistry() {
+        return CircuitBreakerRegistry.ofDefaults();
+    }
+
+    @Bean
+    public CircuitBreakerConfig openAICircuitBreakerConfig(
+            @Value("${openai.circuit-breaker.failure-rate-threshold:50}") float failureRateThreshold,
+            @Value("${openai.circuit-breaker.slow-call-rate-threshold:80}") float slowCallRateThreshold,
+            @Value("${openai.circuit-breaker.slow-call-duration-threshold:20s}") Duration slowCallDurationThreshold,
+            @Value("${openai.circuit-breaker.sliding-window-size:20}") int slidingWindowSize,
+            @Value("${openai.circuit-breaker.minimum-number-of-calls:10}") int minimumNumberOfCalls,
+            @Value("${openai.circuit-breaker.wait-duration-in-open-state:30s}") Duration waitDurationInOpenState) {
+        return CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(slowCallRateThreshold)
+                .slowCallDurationThreshold(slowCallDurationThreshold)
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumNumberOfCalls)
+                .waitDurationInOpenState(waitDurationInOpenState)
+                .permittedNumberOfCallsInHalfOpenState(3)
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .build();
+    }
+
+    // Live chat traffic: completions, intent classification, query embeddings
+    @Bean
+    public CircuitBreaker openAICircuitBreaker(CircuitBreakerRegistry circuitBreakerRegistry,
+                                               CircuitBreakerConfig openAICircuitBreakerConfig) {
+        return circuitBreakerRegistry.circuitBreaker("openai", openAICircuitBreakerConfig);
+    }
+
+    // Bulk embedding jobs (ingestion, evaluations): one that runs into the rate limit must not degrade chat turns
+    @Bean
+    public CircuitBreaker openAIBatchCircuitBreaker(CircuitBreakerRegistry circuitBreakerRegistry,
+                                                    CircuitBreakerConfig openAICircuitBreakerConfig) {
+        return circuitBreakerRegistry.circuitBreaker("openai-batch", openAICircuitBreakerConfig);
+    }
+
+    // resilience4j.circuitbreaker.state / calls / failure.rate ... tagged name=openai|openai-batch
+    @Bean
+    public MeterBinder circuitBreakerMetrics(CircuitBreakerRegistry circuitBreakerRegistry) {
+        return TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry);
+    }
+}
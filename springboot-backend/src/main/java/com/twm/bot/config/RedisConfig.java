@@ -1,5 +1,6 @@
 package com.twm.bot.config;
 
+import com.twm.bot.service.LocalFaqIndex;
 import com.twm.bot.service.RedisMessageSubscriber;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -31,7 +32,8 @@ public class RedisConfig {
     }
 
     @Bean
-    RedisMessageListenerContainer redisContainer(RedisConnectionFactory connectionFactory, RedisMessageSubscriber redisMessageSubscriber) {
+    RedisMessageListenerContainer redisContainer(RedisConnectionFactory connectionFactory, RedisMessageSubscriber redisMessageSubscriber,
+                                                  LocalFaqIndex localFaqIndex) {
         RedisMessageListenerContainer container = new RedisMessageListenerContainer();
         container.setConnectionFactory(connectionFactory);
 
@@ -41,6 +43,9 @@ public class RedisConfig {
         // 添加對所有 chat: 開頭的頻道的訂閱
         container.addMessageListener(redisMessageSubscriber, new PatternTopic("chat:*"));
 
+        // FAQ 新增／刪除同步到每個執行個體的本地 FAQ 索引
+        container.addMessageListener(localFaqIndex, new ChannelTopic(LocalFaqIndex.CHANNEL));
+
         return container;
     }
 }
\ No newline at end of file
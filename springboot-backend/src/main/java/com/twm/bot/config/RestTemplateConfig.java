@@ -1,18 +1,78 @@
 package com.twm.bot.config;
 
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.converter.StringHttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 
+/**
+ * The RestTemplate used for Elasticsearch, on its own pooled keep-alive HttpClient. Autocomplete and suggestions
+ * query ES on nearly every keystroke, so they must not pay a TCP (+TLS) handshake per request. Responses are
+ * requested and transparently decompressed as gzip by HttpClient; request bodies above a threshold (mostly
+ * {@code _bulk}) are gzipped by {@link GzipRequestInterceptor}.
+ */
 @Configuration
 public class RestTemplateConfig {
 
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager elasticsearchConnectionManager(
+            @Value("${elasticsearch.http.max-total:64}") int maxTotal,
+            @Value("${elasticsearch.http.max-per-route:64}") int maxPerRoute,
+            @Value("${elasticsearch.http.connect-timeout:2s}") Duration connectTimeout,
+            @Value("${elasticsearch.http.response-timeout:10s}") Duration responseTimeout,
+            @Value("${elasticsearch.http.time-to-live:5m}") Duration timeToLive) {
+        return PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.of(connectTimeout))
+                        .setSocketTimeout(Timeout.of(responseTimeout))
+                        .setTimeToLive(TimeValue.of(timeToLive))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .build())
+                .build();
+    }
+
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient elasticsearchHttpClient(
+            PoolingHttpClientConnectionManager elasticsearchConnectionManager,
+            @Value("${elasticsearch.http.connection-request-timeout:2s}") Duration connectionRequestTimeout,
+            @Value("${elasticsearch.http.response-timeout:10s}") Duration responseTimeout,
+            @Value("${elasticsearch.http.idle-eviction:30s}") Duration idleEviction) {
+        return HttpClients.custom()
+                .setConnectionManager(elasticsearchConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(Timeout.of(connectionRequestTimeout))
+                        .setResponseTimeout(Timeout.of(responseTimeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.of(idleEviction))
+                .build();
+    }
+
+    @Bean
+    public HttpClientPoolMetrics elasticsearchConnectionPoolMetrics(PoolingHttpClientConnectionManager elasticsearchConnectionManager) {
+        return new HttpClientPoolMetrics("elasticsearch", elasticsearchConnectionManager);
+    }
+
     @Bean
-    public RestTemplate restTemplate() {
-        RestTemplate restTemplate = new RestTemplate();
+    public RestTemplate elasticsearchRestTemplate(CloseableHttpClient elasticsearchHttpClient,
+                                                  @Value("${elasticsearch.http.gzip-min-size:1024}") int gzipMinSize) {
+        RestTemplate restTemplate = new RestTemplate(new HttpComponentsClientHttpRequestFactory(elasticsearchHttpClient));
+        restTemplate.getInterceptors().add(new GzipRequestInterceptor(gzipMinSize));
 
         // Set UTF-8 encoding for StringHttpMessageConverter
         restTemplate.getMessageConverters().stream()
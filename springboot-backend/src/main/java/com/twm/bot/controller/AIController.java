@@ -1,6 +1,8 @@
 package com.twm.bot.controller;
 
+import com.twm.bot.data.dto.IntentEvaluationReport;
 import com.twm.bot.service.CustomerService;
+import com.twm.bot.service.IntentClassifier;
 import org.springframework.web.bind.annotation.*;
 
 @RestController
@@ -8,13 +10,22 @@ import org.springframework.web.bind.annotation.*;
 public class AIController {
 
     private CustomerService customerService;
+    private IntentClassifier intentClassifier;
 
-    public AIController(CustomerService customerService) {
+    public AIController(CustomerService customerService, IntentClassifier intentClassifier) {
         this.customerService = customerService;
+        this.intentClassifier = intentClassifier;
     }
 
     @PostMapping("/query")
     public String handleQuery(@RequestBody String query) throws Exception {
         return customerService.getAIResponse(query);
     }
+
+    // Offline accuracy / latency of the local intent classifier; thresholds can be overridden to tune them
+    @GetMapping("/intent/report")
+    public IntentEvaluationReport intentReport(@RequestParam(required = false) Double minSimilarity,
+                                               @RequestParam(required = false) Double minMargin) throws Exception {
+        return intentClassifier.evaluate(minSimilarity, minMargin);
+    }
 }
\ No newline at end of file
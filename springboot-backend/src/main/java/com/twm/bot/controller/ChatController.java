@@ -2,15 +2,23 @@ package com.twm.bot.controller;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.exception.ai.DeadlineExceededException;
 import com.twm.bot.model.ChatMessage;
 import com.twm.bot.model.faq.FAQ;
 import com.twm.bot.model.user.User;
+import com.twm.bot.service.BotResponsePipeline;
+import com.twm.bot.service.ConversationSummaryService;
 import com.twm.bot.service.CustomerService;
 import com.twm.bot.service.ElasticsearchService;
+import com.twm.bot.service.InitialFaqService;
 import com.twm.bot.service.RedisService;
 import com.twm.bot.service.SearchService;
+import com.twm.bot.service.SuggestionCoalescer;
+import com.twm.bot.util.Deadline;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
@@ -18,34 +26,54 @@ import org.springframework.messaging.simp.SimpMessageSendingOperations;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.stereotype.Controller;
 
+import java.net.SocketTimeoutException;
 import java.security.Principal;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Log4j2
 @Controller
 public class ChatController {
 
+    private static final String STREAM_FAILED_MESSAGE =
+            "很抱歉，回覆時發生錯誤，請稍後再試。是否需要轉接人工客服？<button onclick='requestHumanSupport()'>轉接人工客服</button>";
+
     private final RedisService redisService;
     private final SimpMessageSendingOperations stompMessagingTemplate; // 注入 SimpMessageSendingOperations
-    private  Map<String, String> faqMap = new HashMap<>();
+    private final InitialFaqService initialFaqService;
+    private final SuggestionCoalescer suggestionCoalescer;
     private final CustomerService customerService;
     private final SearchService searchService;
     private final ElasticsearchService elasticsearchService;
     private final RedisTemplate<String, Object> redisTemplate;
+    private final BotResponsePipeline botResponsePipeline;
+    private final ConversationSummaryService conversationSummaryService;
+    private final boolean streamingEnabled;
+    private final Duration turnTimeout;
 
     @Autowired
-    public ChatController(RedisService redisService, SimpMessageSendingOperations stompMessagingTemplate, CustomerService customerService, SearchService searchService, ElasticsearchService elasticsearchService, RedisTemplate<String, Object> redisTemplate) throws Exception {
+    public ChatController(RedisService redisService, SimpMessageSendingOperations stompMessagingTemplate, CustomerService customerService, SearchService searchService, ElasticsearchService elasticsearchService, RedisTemplate<String, Object> redisTemplate,
+                          BotResponsePipeline botResponsePipeline, ConversationSummaryService conversationSummaryService,
+                          InitialFaqService initialFaqService, SuggestionCoalescer suggestionCoalescer,
+                          @Value("${openai.chat.streaming:true}") boolean streamingEnabled,
+                          @Value("${bot.turn-timeout:30s}") Duration turnTimeout) {
         this.redisService = redisService;
         this.stompMessagingTemplate = stompMessagingTemplate;
         this.customerService = customerService;
         this.searchService = searchService;
         this.elasticsearchService = elasticsearchService;
         this.redisTemplate = redisTemplate;
-
-        // 初始化 FAQ 地圖
-        faqMap = elasticsearchService.getRandomFAQMap(3);
+        this.botResponsePipeline = botResponsePipeline;
+        this.conversationSummaryService = conversationSummaryService;
+        this.initialFaqService = initialFaqService;
+        this.suggestionCoalescer = suggestionCoalescer;
+        this.streamingEnabled = streamingEnabled;
+        this.turnTimeout = turnTimeout;
     }
 
     @MessageMapping("/chat.sendMessage")
@@ -60,8 +88,29 @@ public class ChatController {
             redisService.updateChatSession(chatSessionId, message);
         } else {
             // Bot 處理邏輯保持不變
-            ChatMessage responseMessage = handleMessageByBot(chatSessionId, message);
-            stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, responseMessage);
+            if (streamingEnabled) {
+                // 串流模式：逐段送出 CHUNK，最後以 END 送出完整回覆
+                ChatMessage responseMessage;
+                try {
+                    responseMessage = handleMessageByBot(chatSessionId, message, delta -> {
+                        ChatMessage chunk = new ChatMessage("Bot", delta, ChatMessage.MessageType.CHUNK);
+                        chunk.setChatSessionId(chatSessionId);
+                        stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, chunk);
+                    });
+                } catch (Exception e) {
+                    // 已送出的 CHUNK 必須以 END 收尾，否則前端會把下一輪的回覆接在這則未完成的訊息後面
+                    ChatMessage endMessage = new ChatMessage("Bot", STREAM_FAILED_MESSAGE, ChatMessage.MessageType.END);
+                    endMessage.setChatSessionId(chatSessionId);
+                    stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, endMessage);
+                    throw e;
+                }
+                ChatMessage endMessage = new ChatMessage("Bot", responseMessage.getContent(), ChatMessage.MessageType.END, responseMessage.getTimestamp());
+                endMessage.setChatSessionId(chatSessionId);
+                stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, endMessage);
+            } else {
+                ChatMessage responseMessage = handleMessageByBot(chatSessionId, message, null);
+                stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, responseMessage);
+            }
         }
     }
 
@@ -75,39 +124,47 @@ public class ChatController {
     }
 
     // Step 2: Bot 處理訊息
-    private ChatMessage handleMessageByBot(String chatSessionId, ChatMessage message) throws Exception {
+    private ChatMessage handleMessageByBot(String chatSessionId, ChatMessage message, Consumer<String> onDelta) throws Exception {
         String userMessage = message.getContent();
 
         // Step 2a: 更新 Redis 中的聊天會話
         redisService.updateChatSession(chatSessionId, message);
 
-        // Step 2b: 生成 Bot 的回應
-        ChatMessage responseMessage = generateBotResponse(chatSessionId, userMessage);
+        // Step 2b: 生成 Bot 的回應（串流時片段會即時送給 onDelta），整個回合受 turnTimeout 限制
+        ChatMessage responseMessage = Deadline.after(turnTimeout).call(() -> generateBotResponse(chatSessionId, userMessage, onDelta));
 
-        // Step 2c: 更新 Redis 中的聊天會話（Bot 回應）
+        // Step 2c: 更新 Redis 中的聊天會話（Bot 回應），串流時也只寫入組合完成的完整訊息
         redisService.updateChatSession(chatSessionId, responseMessage);
         log.info("Updated chat session in Redis for ChatSessionId: {} with message: {}", chatSessionId, responseMessage);
 
+        // Step 2d: 累積足夠的新訊息後，在背景更新滾動摘要
+        conversationSummaryService.onMessagesAdded(chatSessionId);
+
         return responseMessage;
     }
 
-    private ChatMessage generateBotResponse(String chatSessionId, String userMessage) throws Exception {
-        // Attempt to find an exact match in the FAQ
-        Optional<FAQ> optionalFaq = searchService.exactMatchFAQ(userMessage);
-
-        if (optionalFaq.isPresent()) {
-            // If a match is found, return the FAQ answer
-            return new ChatMessage("Bot", optionalFaq.get().getAnswer(), ChatMessage.MessageType.CHAT);
-        }
-
-        String aiResponse;
+    private ChatMessage generateBotResponse(String chatSessionId, String userMessage, Consumer<String> onDelta) throws Exception {
+        // FAQ 精確比對、意圖分類與知識庫檢索並行執行
+        BotResponsePipeline.Reply reply;
         try {
-            aiResponse = customerService.twoStageResponse(userMessage, chatSessionId);
-            //aiResponse = customerService.getAIResponseWithContext(userMessage, chatSessionId);
+            reply = botResponsePipeline.respond(userMessage, chatSessionId, onDelta);
         } catch (Exception e) {
+            if (isOpenAIUnavailable(e)) {
+                // OpenAI 斷路器開啟或回合逾時：改以 FAQ 部分比對回覆，不計入未回答次數
+                log.warn("OpenAI unavailable for ChatSessionId: {}, degrading to FAQ suggestions: {}", chatSessionId, String.valueOf(e));
+                return degradedResponse(userMessage);
+            }
             throw new RuntimeException("Error while fetching AI response", e);
         }
 
+        if (reply.faqHit()) {
+            // If a match is found, return the FAQ answer; popularity counts the FAQ, not the user's wording of it
+            recordFaqPopularity(reply.faq().getQuestion());
+            return new ChatMessage("Bot", reply.content(), ChatMessage.MessageType.CHAT);
+        }
+
+        String aiResponse = reply.content();
+
         ChatMessage responseMessage = new ChatMessage("Bot", aiResponse, ChatMessage.MessageType.CHAT);
 
         if (aiResponse.contains("人工客服")) {
@@ -130,17 +187,63 @@ public class ChatController {
             return responseMessage;
     }
 
+    // 斷路器開啟、回合或單一階段逾時（OpenAI、Milvus、ES 太慢）、執行緒池已滿都改為降級回覆
+    private static boolean isOpenAIUnavailable(Throwable e) {
+        Deadline deadline = Deadline.current();
+        if (deadline != null && deadline.isExpired()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof CallNotPermittedException || cause instanceof DeadlineExceededException
+                    || cause instanceof TimeoutException || cause instanceof SocketTimeoutException
+                    || cause instanceof RejectedExecutionException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private ChatMessage degradedResponse(String userMessage) throws Exception {
+        List<FAQ> faqs = searchService.partialMatchFAQs(userMessage);
+        if (faqs.isEmpty()) {
+            return new ChatMessage(
+                    "Bot",
+                    "很抱歉，目前 AI 客服忙碌中。是否需要轉接人工客服？<button onclick='requestHumanSupport()'>轉接人工客服</button>",
+                    ChatMessage.MessageType.CHAT
+            );
+        }
+
+        String suggestions = faqs.stream()
+                .limit(3)
+                .map(faq -> "<li><b>" + faq.getQuestion() + "</b><br>" + faq.getAnswer() + "</li>")
+                .collect(Collectors.joining());
+        return new ChatMessage("Bot", "目前 AI 客服忙碌中，以下是可能相關的常見問題：<ul>" + suggestions + "</ul>", ChatMessage.MessageType.CHAT);
+    }
+
 
 
 
+    // 熱門 FAQ 會在下次啟動時預先回答（WarmupService），計數失敗不影響回覆
+    private void recordFaqPopularity(String question) {
+        if (question == null) {
+            return;
+        }
+        try {
+            redisService.incrementFaqPopularity(question);
+        } catch (RuntimeException e) {
+            log.warn("Failed to record FAQ popularity: {}", e.getMessage());
+        }
+    }
+
     @MessageMapping("/chat.selectFaq")
     public void handleFaqSelection(@Payload ChatMessage message, Principal principal) {
         String chatSessionId = message.getChatSessionId(); // 取得 chatSessionId
         String selectedQuestion = message.getContent();
-        String answer = faqMap.get(selectedQuestion);
+        String answer = initialFaqService.getAnswer(selectedQuestion);
 
         ChatMessage responseMessage;
         if (answer != null) {
+            recordFaqPopularity(selectedQuestion);
             responseMessage = new ChatMessage("Bot", answer, ChatMessage.MessageType.CHAT);
         } else {
             responseMessage = new ChatMessage("Bot", "抱歉，我無法找到這個問題的答案。", ChatMessage.MessageType.CHAT);
@@ -160,7 +263,7 @@ public class ChatController {
         // 從 payload 中獲取 chatSessionId
         String chatSessionId = payload.get("chatSessionId");
 
-        List<String> questions = new ArrayList<>(faqMap.keySet());
+        List<String> questions = initialFaqService.getQuestions();
         Collections.shuffle(questions);
         List<String> selectedQuestions = questions.subList(0, Math.min(3, questions.size()));
 
@@ -172,24 +275,22 @@ public class ChatController {
     }
 
     @MessageMapping("/chat.getSuggestions")
-    public void getSuggestions(@Payload ChatMessage message, Principal principal) throws Exception {
+    public void getSuggestions(@Payload ChatMessage message, Principal principal) {
         String chatSessionId = message.getChatSessionId(); // 取得 chatSessionId
         String userInput = message.getContent();
-        List<FAQ> suggestions = searchService.partialMatchFAQs(userInput);
-        List<String> matchedQuestions = suggestions.stream()
-                .map(FAQ::getQuestion)
-                .limit(3)
-                .collect(Collectors.toList());
 
-        ChatMessage responseMessage;
-        if (!matchedQuestions.isEmpty()) {
-            responseMessage = new ChatMessage("Bot", String.join("\n", matchedQuestions), ChatMessage.MessageType.SUGGESTIONS);
-        } else {
-            responseMessage = new ChatMessage("Bot", "", ChatMessage.MessageType.SUGGESTIONS);
-        }
+        // 同一使用者的同一個對話只查詢最新的輸入，使用者繼續輸入時較舊的請求會被取代或丟棄
+        suggestionCoalescer.submit(principal.getName(), chatSessionId, userInput, matchedQuestions -> {
+            ChatMessage responseMessage;
+            if (!matchedQuestions.isEmpty()) {
+                responseMessage = new ChatMessage("Bot", String.join("\n", matchedQuestions), ChatMessage.MessageType.SUGGESTIONS);
+            } else {
+                responseMessage = new ChatMessage("Bot", "", ChatMessage.MessageType.SUGGESTIONS);
+            }
 
-        // 發送消息到指定的用戶路徑
-        stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, responseMessage);
+            // 發送消息到指定的用戶路徑
+            stompMessagingTemplate.convertAndSendToUser(principal.getName(), "/queue/reply/" + chatSessionId, responseMessage);
+        });
     }
 
     @MessageMapping("/chat.connect")
@@ -0,0 +1,67 @@
+package com.twm.bot.controller;
+
+import com.twm.bot.data.dto.EmbeddingDimensionReport;
+import com.twm.bot.data.dto.IngestionRequest;
+import com.twm.bot.data.dto.IngestionStatus;
+import com.twm.bot.data.dto.QuantizationReport;
+import com.twm.bot.service.EmbeddingDimensionEvaluator;
+import com.twm.bot.service.KnowledgeBaseIngestionService;
+import com.twm.bot.service.LocalVectorIndex;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@Log4j2
+@RestController
+@RequestMapping("/api/knowledge-base")
+public class KnowledgeBaseController {
+
+    private final KnowledgeBaseIngestionService ingestionService;
+    private final LocalVectorIndex localVectorIndex;
+    private final EmbeddingDimensionEvaluator embeddingDimensionEvaluator;
+
+    public KnowledgeBaseController(KnowledgeBaseIngestionService ingestionService,
+                                   LocalVectorIndex localVectorIndex,
+                                   EmbeddingDimensionEvaluator embeddingDimensionEvaluator) {
+        this.ingestionService = ingestionService;
+        this.localVectorIndex = localVectorIndex;
+        this.embeddingDimensionEvaluator = embeddingDimensionEvaluator;
+    }
+
+    // 匯入文件 / FAQ 至 Milvus，於背景執行；以相同 jobId 重新送出可從中斷處續跑
+    @PostMapping("/ingest")
+    public ResponseEntity<IngestionStatus> ingest(@RequestBody IngestionRequest request) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ingestionService.submit(request));
+    }
+
+    @GetMapping("/ingest/{jobId}")
+    public ResponseEntity<IngestionStatus> ingestionStatus(@PathVariable String jobId) {
+        return ingestionService.getStatus(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    // 以指定維度重新嵌入目前使用中的 collection，寫入對應的平行 collection（dimensions=0 為原始維度）
+    @PostMapping("/reembed")
+    public ResponseEntity<IngestionStatus> reembed(@RequestParam int dimensions) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(ingestionService.submitReembed(dimensions));
+    }
+
+    // 比較降維 embedding 與原始維度的 recall@k、記憶體與掃描時間
+    @GetMapping("/embedding-dimensions/report")
+    public EmbeddingDimensionReport embeddingDimensionReport(@RequestParam int dimensions,
+                                                             @RequestParam(defaultValue = "200") int queries,
+                                                             @RequestParam(defaultValue = "5") int topK) throws IOException {
+        return embeddingDimensionEvaluator.evaluate(dimensions, queries, topK);
+    }
+
+    // 比較本機向量索引 int8 量化與 float32 精確搜尋的 recall@k 與記憶體用量
+    @GetMapping("/local-index/quantization-report")
+    public QuantizationReport quantizationReport(@RequestParam(defaultValue = "200") int queries,
+                                                 @RequestParam(defaultValue = "5") int topK) {
+        return localVectorIndex.quantizationReport(queries, topK);
+    }
+}
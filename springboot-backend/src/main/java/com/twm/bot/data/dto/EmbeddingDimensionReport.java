@@ -0,0 +1,27 @@
+package com.twm.bot.data.dto;
+
+import lombok.Data;
+
+/**
+ * Recall@k of knowledge base search with reduced-dimension embeddings compared with full-size ones, plus the vector
+ * memory and flat-scan time of both.
+ */
+@Data
+public class EmbeddingDimensionReport {
+
+    private int rows;
+    private int fullDimension;
+    private int reducedDimension;
+    // COLLECTION when the re-embedded collection was compared, SHORTENED when full vectors were cut down locally
+    private String reducedSource;
+    private int queries;
+    private int topK;
+    // share of the full-size top-k found with reduced vectors, averaged over the queries
+    private double recall;
+    // share of queries whose best full-size match is also the best reduced match
+    private double top1Agreement;
+    private long fullBytes;
+    private long reducedBytes;
+    private double fullMeanMicros;
+    private double reducedMeanMicros;
+}
@@ -0,0 +1,31 @@
+package com.twm.bot.data.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Documents to load into the knowledge base. Fields mirror the knowledge_base_dynamic collection: for an FAQ export
+ * {@code content} is the question and {@code answer} the answer; for a plain document {@code content} is its title
+ * and {@code answer} its body. Long answers are split into several chunks that all keep the same content.
+ * <p>
+ * Re-submitting a request with the same {@code jobId} resumes it: documents already ingested by that job are skipped.
+ */
+@Data
+public class IngestionRequest {
+
+    // Optional, generated when missing
+    private String jobId;
+    private List<Document> documents = new ArrayList<>();
+
+    @Data
+    public static class Document {
+        // Stable id of the source document; chunk ids are derived from it, so re-ingesting replaces the old chunks
+        private String id;
+        private String content;
+        private String answer;
+        // Product line the document belongs to (knowledge-base.domain.enabled); missing means it applies to all
+        private String productLine;
+    }
+}
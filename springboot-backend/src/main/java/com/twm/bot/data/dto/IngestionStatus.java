@@ -0,0 +1,28 @@
+package com.twm.bot.data.dto;
+
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Progress and throughput of a knowledge base ingestion job.
+ */
+@Data
+public class IngestionStatus {
+
+    public enum State { RUNNING, COMPLETED, FAILED }
+
+    private String jobId;
+    private State state;
+    private int totalDocuments;
+    // Already ingested by an earlier run of the same job
+    private int skippedDocuments;
+    private int ingestedDocuments;
+    private long chunks;
+    private long embeddings;
+    private double documentsPerSecond;
+    private double embeddingsPerSecond;
+    private Instant startedAt;
+    private Instant finishedAt;
+    private String error;
+}
@@ -0,0 +1,49 @@
+package com.twm.bot.data.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Offline accuracy / latency of the local intent classifier over a labelled query set.
+ * Only local decisions (rules + nearest centroid) are measured; queries the classifier is unsure about
+ * are counted as LLM fallbacks instead of being sent to OpenAI.
+ */
+@Data
+public class IntentEvaluationReport {
+
+    private double minSimilarity;
+    private double minMargin;
+    private int total;
+    private int decidedLocally;
+    private int correct;
+    // decidedLocally / total
+    private double coverage;
+    // correct / decidedLocally
+    private double localAccuracy;
+    private double latencyP50Micros;
+    private double latencyP95Micros;
+    private double latencyMaxMicros;
+    private Map<String, LabelStats> labels = new LinkedHashMap<>();
+    private List<Miss> misses = new ArrayList<>();
+
+    @Data
+    public static class LabelStats {
+        private int support;
+        private int decidedLocally;
+        private int correct;
+    }
+
+    @Data
+    public static class Miss {
+        private final String query;
+        private final String expected;
+        // null when the classifier would have fallen back to the LLM
+        private final String predicted;
+        private final String source;
+        private final double similarity;
+    }
+}
@@ -0,0 +1,30 @@
+package com.twm.bot.data.dto;
+
+import lombok.Data;
+
+/**
+ * Recall@k and memory of int8-quantized local vector search compared with exact float32 search.
+ */
+@Data
+public class QuantizationReport {
+
+    private int rows;
+    private int dimension;
+    private int queries;
+    private int topK;
+    // candidates re-scored = topK * oversample
+    private int oversample;
+    // share of the exact float32 top-k found, averaged over the queries
+    private double int8Recall;
+    private double int8RescoredRecall;
+    private long float32Bytes;
+    // int8 codes and per-row scales on heap
+    private long int8Bytes;
+    // float32 originals kept off-heap for re-scoring; 0 with rescore=false
+    private long offHeapBytes;
+    // int8Bytes + offHeapBytes, what INT8 actually costs compared with float32Bytes
+    private long int8TotalBytes;
+    private double float32MeanMicros;
+    private double int8MeanMicros;
+    private double int8RescoredMeanMicros;
+}
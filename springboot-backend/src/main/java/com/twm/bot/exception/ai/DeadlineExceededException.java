@@ -0,0 +1,13 @@
+package com.twm.bot.exception.ai;
+
+import java.io.IOException;
+
+public class DeadlineExceededException extends IOException {
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+
+    public DeadlineExceededException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
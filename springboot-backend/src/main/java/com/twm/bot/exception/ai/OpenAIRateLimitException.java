@@ -0,0 +1,9 @@
+package com.twm.bot.exception.ai;
+
+import java.io.IOException;
+
+public class OpenAIRateLimitException extends IOException {
+    public OpenAIRateLimitException(String message) {
+        super(message);
+    }
+}
@@ -19,7 +19,9 @@ public class ChatMessage {
     private Instant timestamp; // 使用 Instant 來表示 UTC 時間戳
 
     public enum MessageType {
-        CHAT, JOIN, LEAVE, FAQ_SUGGESTIONS, SUGGESTIONS, INITIAL_FAQ, REQUEST_AGENT
+        CHAT, JOIN, LEAVE, FAQ_SUGGESTIONS, SUGGESTIONS, INITIAL_FAQ, REQUEST_AGENT,
+        // 串流回覆：CHUNK 為增量片段，END 帶有完整的最終回覆
+        CHUNK, END
     }
 
     // 更新構造函數，包含時間戳
@@ -0,0 +1,14 @@
+package com.twm.bot.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+// 知識庫檢索結果中的一筆資料
+@Data
+@AllArgsConstructor
+public class KnowledgeChunk {
+    private String id;
+    private String content;
+    private String answer;
+    private float score;
+}
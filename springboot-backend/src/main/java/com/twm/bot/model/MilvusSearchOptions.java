@@ -0,0 +1,21 @@
+package com.twm.bot.model;
+
+import io.milvus.v2.common.ConsistencyLevel;
+import lombok.Builder;
+import lombok.Value;
+
+import java.util.List;
+import java.util.Map;
+
+// 單次 Milvus 向量搜尋的參數；參數相同的查詢才能合併成同一個批次請求
+@Value
+@Builder(toBuilder = true)
+public class MilvusSearchOptions {
+    int topK;
+    // 索引搜尋參數，例如 IVF 的 nprobe 或 HNSW 的 ef
+    Map<String, Object> searchParams;
+    ConsistencyLevel consistencyLevel;
+    // 純量過濾條件（Milvus boolean expression），null 表示不過濾
+    String filter;
+    List<String> partitionNames;
+}
@@ -0,0 +1,19 @@
+package com.twm.bot.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+// 一次知識庫檢索的結果：查詢向量、命中的資料，以及組合好給 LLM 的 context
+@Data
+@AllArgsConstructor
+public class RetrievedContext {
+    private float[] queryVector;
+    private List<KnowledgeChunk> chunks;
+    private String text;
+
+    public List<String> getChunkIds() {
+        return chunks.stream().map(KnowledgeChunk::getId).toList();
+    }
+}
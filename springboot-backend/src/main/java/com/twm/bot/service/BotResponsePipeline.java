@@ -0,0 +1,166 @@
+package com.twm.bot.service;
+
+import com.twm.bot.exception.ai.DeadlineExceededException;
+import com.twm.bot.model.RetrievedContext;
+import com.twm.bot.model.faq.FAQ;
+import com.twm.bot.util.Deadline;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Produces the bot reply for one user message.
+ * <p>
+ * An FAQ hit wins over everything. Once the {@link LocalFaqIndex} is loaded the exact match is an in-process hash
+ * lookup, done before anything else so an FAQ hit never starts the other stages. Until then the Elasticsearch exact
+ * match, the intent classification and the embedding + Milvus retrieval are independent, so they are started together
+ * instead of one after another. Without an FAQ hit a non-retrieval intent is answered without waiting for retrieval. Losing stages are cancelled (their worker thread is interrupted)
+ * and every stage has its own timeout.
+ */
+@Log4j2
+@Service
+public class BotResponsePipeline {
+
+    /**
+     * @param faq the exactly matched FAQ when the reply is its answer, otherwise null
+     */
+    public record Reply(String content, FAQ faq) {
+        public boolean faqHit() {
+            return faq != null;
+        }
+    }
+
+    private final SearchService searchService;
+    private final LocalFaqIndex localFaqIndex;
+    private final IntentClassifier intentClassifier;
+    private final CustomerService customerService;
+    private final AsyncTaskExecutor executor;
+    private final Duration faqTimeout;
+    private final Duration intentTimeout;
+    private final Duration retrievalTimeout;
+
+    public BotResponsePipeline(SearchService searchService,
+                               LocalFaqIndex localFaqIndex,
+                               IntentClassifier intentClassifier,
+                               CustomerService customerService,
+                               @Qualifier("botPipelineExecutor") AsyncTaskExecutor executor,
+                               @Value("${bot.pipeline.faq-timeout:2s}") Duration faqTimeout,
+                               @Value("${bot.pipeline.intent-timeout:10s}") Duration intentTimeout,
+                               @Value("${bot.pipeline.retrieval-timeout:10s}") Duration retrievalTimeout) {
+        this.searchService = searchService;
+        this.localFaqIndex = localFaqIndex;
+        this.intentClassifier = intentClassifier;
+        this.customerService = customerService;
+        this.executor = executor;
+        this.faqTimeout = faqTimeout;
+        this.intentTimeout = intentTimeout;
+        this.retrievalTimeout = retrievalTimeout;
+    }
+
+    public Reply respond(String query, String chatSessionId, Consumer<String> onDelta) throws Exception {
+        // Step 1: an exact FAQ match short-circuits the whole turn
+        if (localFaqIndex.isReady()) {
+            Optional<FAQ> faq = localFaqIndex.exactMatch(query);
+            if (faq.isPresent()) {
+                return new Reply(faq.get().getAnswer(), faq.get());
+            }
+            return respondWithoutFaq(query, chatSessionId, onDelta,
+                    stage(() -> intentClassifier.classify(query), intentTimeout),
+                    stage(() -> customerService.getKnowledgeBase(query, chatSessionId), retrievalTimeout));
+        }
+
+        CompletableFuture<Optional<FAQ>> faqStage = stage(() -> searchService.exactMatchFAQ(query), faqTimeout);
+        CompletableFuture<IntentClassifier.Prediction> intentStage = stage(() -> intentClassifier.classify(query), intentTimeout);
+        CompletableFuture<RetrievedContext> retrievalStage = stage(() -> customerService.getKnowledgeBase(query, chatSessionId), retrievalTimeout);
+
+        Optional<FAQ> faq = awaitOrDefault(faqStage, Optional.empty(), "FAQ exact match");
+        if (faq.isPresent()) {
+            intentStage.cancel(true);
+            retrievalStage.cancel(true);
+            return new Reply(faq.get().getAnswer(), faq.get());
+        }
+        return respondWithoutFaq(query, chatSessionId, onDelta, intentStage, retrievalStage);
+    }
+
+    private Reply respondWithoutFaq(String query, String chatSessionId, Consumer<String> onDelta,
+                                    CompletableFuture<IntentClassifier.Prediction> intentStage,
+                                    CompletableFuture<RetrievedContext> retrievalStage) throws Exception {
+
+        // Step 2: intents other than 獲取資訊 don't need retrieved context
+        String intent;
+        try {
+            intent = intentStage.join().intent();
+        } catch (CompletionException e) {
+            log.warn("Intent classification failed, assuming {}: {}", IntentClassifier.GET_INFO, e.getMessage());
+            intent = IntentClassifier.GET_INFO;
+        }
+        if (!IntentClassifier.GET_INFO.equals(intent)) {
+            retrievalStage.cancel(true);
+            return new Reply(customerService.handleQueryBasedOnIntent(intent, query, chatSessionId, onDelta), null);
+        }
+
+        // Step 3: answer with the context retrieved in parallel
+        RetrievedContext context;
+        try {
+            context = retrievalStage.join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Knowledge base retrieval failed", e.getCause());
+        }
+        return new Reply(customerService.getAIResponseWithContext(query, chatSessionId, context, onDelta), null);
+    }
+
+    /**
+     * Runs {@code task} on the pipeline executor. Cancelling the returned future, or letting it time out,
+     * interrupts the worker so blocking I/O of a losing stage stops as early as it can. A timed out stage fails with
+     * {@link DeadlineExceededException}, which the caller answers with the degraded reply like an open breaker. When
+     * the executor is saturated the stage fails with its {@link RejectedExecutionException} instead of the caller
+     * getting it thrown, so a rejected optional stage is skipped like a failed one.
+     */
+    private <T> CompletableFuture<T> stage(Callable<T> task, Duration timeout) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = executor.submit(() -> {
+                try {
+                    result.complete(task.call());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+        result.whenComplete((value, error) -> {
+            if (result.isCancelled() || error instanceof DeadlineExceededException) {
+                running.cancel(true);
+            }
+        });
+        // A stage never outlives the deadline of the chat turn
+        Duration capped = Deadline.cap(timeout);
+        CompletableFuture.delayedExecutor(capped.toMillis(), TimeUnit.MILLISECONDS).execute(() ->
+                result.completeExceptionally(new DeadlineExceededException("Stage did not finish within " + capped)));
+        return result;
+    }
+
+    private <T> T awaitOrDefault(CompletableFuture<T> stage, T defaultValue, String stageName) {
+        try {
+            return stage.join();
+        } catch (CompletionException e) {
+            log.warn("{} failed, continuing without it: {}", stageName, String.valueOf(e.getCause()));
+            return defaultValue;
+        }
+    }
+}
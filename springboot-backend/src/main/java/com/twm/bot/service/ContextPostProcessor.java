@@ -0,0 +1,130 @@
+package com.twm.bot.service;
+
+import com.twm.bot.model.KnowledgeChunk;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Turns retrieved chunks (best-first) into the context the LLM sees. Weak matches were already cut by
+ * {@link HybridRetriever}, per retriever and before fusion.
+ * <ol>
+ *     <li>drops near-duplicates: chunks whose character-shingle Jaccard similarity with a better-ranked kept chunk is
+ *     at least {@code max-duplicate-similarity}</li>
+ *     <li>truncates each chunk to {@code max-chunk-tokens}, the answer is cut before the question</li>
+ * </ol>
+ * {@link #render(List)} then numbers the chunks so the model (and the logs) can refer to them.
+ */
+@Log4j2
+@Service
+public class ContextPostProcessor {
+
+    // Character shingles suit Chinese text, which has no word boundaries to split on
+    private static final int SHINGLE_LENGTH = 3;
+
+    private final TokenCounter tokenCounter;
+    private final MeterRegistry meterRegistry;
+    private final double maxDuplicateSimilarity;
+    private final int maxChunkTokens;
+
+    public ContextPostProcessor(TokenCounter tokenCounter,
+                                MeterRegistry meterRegistry,
+                                @Value("${retrieval.context.max-duplicate-similarity:0.8}") double maxDuplicateSimilarity,
+                                @Value("${retrieval.context.max-chunk-tokens:400}") int maxChunkTokens) {
+        this.tokenCounter = tokenCounter;
+        this.meterRegistry = meterRegistry;
+        this.maxDuplicateSimilarity = maxDuplicateSimilarity;
+        this.maxChunkTokens = maxChunkTokens;
+    }
+
+    public List<KnowledgeChunk> process(List<KnowledgeChunk> chunks) {
+        if (chunks.isEmpty()) {
+            return chunks;
+        }
+
+        List<KnowledgeChunk> kept = new ArrayList<>();
+        List<Set<Integer>> keptShingles = new ArrayList<>();
+        int duplicates = 0;
+        for (KnowledgeChunk chunk : chunks) {
+            Set<Integer> shingles = shingles(chunk.getContent() + chunk.getAnswer());
+            if (keptShingles.stream().anyMatch(other -> jaccard(shingles, other) >= maxDuplicateSimilarity)) {
+                duplicates++;
+                continue;
+            }
+            kept.add(truncate(chunk));
+            keptShingles.add(shingles);
+        }
+
+        meterRegistry.counter("retrieval.context.dropped", "reason", "duplicate").increment(duplicates);
+        log.debug("Context kept {} of {} chunks ({} near-duplicates)", kept.size(), chunks.size(), duplicates);
+        return kept;
+    }
+
+    /**
+     * Numbered context, one block per chunk:
+     * <pre>
+     * [1] question / content
+     * answer
+     * </pre>
+     */
+    public String render(List<KnowledgeChunk> chunks) {
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            KnowledgeChunk chunk = chunks.get(i);
+            if (i > 0) {
+                context.append("\n\n");
+            }
+            context.append('[').append(i + 1).append("] ").append(chunk.getContent().strip());
+            if (!chunk.getAnswer().isBlank()) {
+                context.append('\n').append(chunk.getAnswer().strip());
+            }
+        }
+        return context.toString();
+    }
+
+    private KnowledgeChunk truncate(KnowledgeChunk chunk) {
+        int contentTokens = tokenCounter.count(chunk.getContent());
+        if (contentTokens >= maxChunkTokens) {
+            return new KnowledgeChunk(chunk.getId(), tokenCounter.truncate(chunk.getContent(), maxChunkTokens), "", chunk.getScore());
+        }
+        String answer = tokenCounter.truncate(chunk.getAnswer(), maxChunkTokens - contentTokens);
+        return answer.equals(chunk.getAnswer())
+                ? chunk
+                : new KnowledgeChunk(chunk.getId(), chunk.getContent(), answer, chunk.getScore());
+    }
+
+    private static Set<Integer> shingles(String text) {
+        // Whitespace and punctuation differences shouldn't make two chunks look different
+        String normalized = text.replaceAll("[\\s\\p{P}]+", "").toLowerCase();
+        Set<Integer> shingles = new HashSet<>();
+        if (normalized.length() <= SHINGLE_LENGTH) {
+            shingles.add(normalized.hashCode());
+            return shingles;
+        }
+        for (int i = 0; i + SHINGLE_LENGTH <= normalized.length(); i++) {
+            shingles.add(normalized.substring(i, i + SHINGLE_LENGTH).hashCode());
+        }
+        return shingles;
+    }
+
+    private static double jaccard(Set<Integer> a, Set<Integer> b) {
+        if (a.isEmpty() && b.isEmpty()) {
+            return 1.0;
+        }
+        Set<Integer> smaller = a.size() <= b.size() ? a : b;
+        Set<Integer> larger = smaller == a ? b : a;
+        int intersection = 0;
+        for (Integer shingle : smaller) {
+            if (larger.contains(shingle)) {
+                intersection++;
+            }
+        }
+        return (double) intersection / (a.size() + b.size() - intersection);
+    }
+}
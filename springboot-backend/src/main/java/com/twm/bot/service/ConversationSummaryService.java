@@ -0,0 +1,115 @@
+package com.twm.bot.service;
+
+import com.twm.bot.model.ChatMessage;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a rolling summary of each chat session in Redis next to {@code chatSession:{id}.chatMessages}.
+ * <p>
+ * Every {@code conversation.summary.every-n-messages} new messages the summary is updated in the background from
+ * the previous summary plus only the messages added since, so hand-over and "總結" can start from the summary and
+ * the short tail instead of re-sending the whole transcript.
+ */
+@Log4j2
+@Service
+public class ConversationSummaryService {
+
+    public record Summary(String text, long coveredMessageCount) {
+        public static final Summary EMPTY = new Summary(null, 0);
+    }
+
+    private static final String SUMMARY_PROMPT = "你是客服對話的摘要助手。請根據先前的摘要與新的對話內容，產生更新後的完整摘要。"
+            + "保留用戶的問題、已提供的解決方案與尚未解決的事項，言簡意賅，不超過 300 字，只輸出摘要本身。";
+
+    private final RedisService redisService;
+    private final OpenAIService openAIService;
+    private final PromptBuilder promptBuilder;
+    private final AsyncTaskExecutor executor;
+    private final int everyNMessages;
+    // Sessions with an update in flight, so a burst of messages triggers only one update
+    private final Set<String> updating = ConcurrentHashMap.newKeySet();
+
+    public ConversationSummaryService(RedisService redisService,
+                                      OpenAIService openAIService,
+                                      PromptBuilder promptBuilder,
+                                      @Qualifier("botPipelineExecutor") AsyncTaskExecutor executor,
+                                      @Value("${conversation.summary.every-n-messages:6}") int everyNMessages) {
+        this.redisService = redisService;
+        this.openAIService = openAIService;
+        this.promptBuilder = promptBuilder;
+        this.executor = executor;
+        this.everyNMessages = everyNMessages;
+    }
+
+    public Summary getSummary(String chatSessionId) {
+        Map<Object, Object> stored = redisService.getConversationSummary(chatSessionId);
+        if (stored == null || stored.get("text") == null) {
+            return Summary.EMPTY;
+        }
+        return new Summary(stored.get("text").toString(), Long.parseLong(stored.get("coveredMessageCount").toString()));
+    }
+
+    /**
+     * Called after messages are appended to a session; schedules a background update once enough new messages
+     * have accumulated since the last summary.
+     */
+    public void onMessagesAdded(String chatSessionId) {
+        long messageCount = redisService.getChatSessionMessageCount(chatSessionId);
+        if (messageCount - getSummary(chatSessionId).coveredMessageCount() < everyNMessages) {
+            return;
+        }
+        if (!updating.add(chatSessionId)) {
+            return;
+        }
+        executor.execute(() -> {
+            try {
+                updateSummary(chatSessionId);
+            } catch (Exception e) {
+                log.warn("Failed to update rolling summary for ChatSessionId {}: {}", chatSessionId, e.getMessage());
+            } finally {
+                updating.remove(chatSessionId);
+            }
+        });
+    }
+
+    private void updateSummary(String chatSessionId) throws Exception {
+        Summary previous = getSummary(chatSessionId);
+        List<ChatMessage> newMessages = redisService.getChatSessionMessages(chatSessionId, previous.coveredMessageCount());
+        if (newMessages.isEmpty()) {
+            return;
+        }
+
+        List<Map<String, String>> history = new ArrayList<>();
+        if (previous.text() != null) {
+            history.add(Map.of("role", "assistant", "content", "先前的對話摘要：" + previous.text()));
+        }
+        history.addAll(newMessages.stream()
+                .map(msg -> Map.of(
+                        "role", msg.getSender().equals("Bot") ? "assistant" : "user",
+                        "content", msg.getContent()
+                ))
+                .collect(Collectors.toList()));
+
+        PromptBuilder.Prompt prompt = promptBuilder.newPrompt("rolling-summary")
+                .system(SUMMARY_PROMPT)
+                .history(history)
+                .user("請更新對話摘要")
+                .build();
+        String summary = openAIService.getChatCompletion(prompt.messages());
+
+        long coveredMessageCount = previous.coveredMessageCount() + newMessages.size();
+        redisService.saveConversationSummary(chatSessionId, summary, coveredMessageCount);
+        log.info("Updated rolling summary for ChatSessionId {} to cover {} messages", chatSessionId, coveredMessageCount);
+    }
+}
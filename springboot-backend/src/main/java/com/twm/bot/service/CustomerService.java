@@ -1,7 +1,8 @@
 package com.twm.bot.service;
 
 import com.twm.bot.model.ChatMessage;
-import io.milvus.v2.service.vector.response.SearchResp;
+import com.twm.bot.model.KnowledgeChunk;
+import com.twm.bot.model.RetrievedContext;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.stereotype.Service;
 
@@ -9,6 +10,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Log4j2
@@ -16,8 +19,14 @@ import java.util.stream.Collectors;
 public class CustomerService {
 
     private final OpenAIService openAIService;
-    private final MilvusService milvusService;
+    private final HybridRetriever hybridRetriever;
+    private final ContextPostProcessor contextPostProcessor;
     private final RedisService redisService;
+    private final IntentClassifier intentClassifier;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSummaryService conversationSummaryService;
+    private final KnowledgeDomainResolver knowledgeDomainResolver;
     //private final String PROMPT  = "你是台灣大哥大的客服AI。請先根據用戶的輸入語言選擇適當的回答語言。如果用戶用繁體中文提問，你就用繁體中文回答；如果用戶用英文或其他語言提問，你應該用相同的語言回答他們的問題。接著，你只能根據已提供的上下文內容進行回答。如果用戶的問題能在上下文中找到意思相近的資訊，可以詢問用戶是否需要了解該內容。如果你沒有相關資訊，就不要回答。你的回答將會成為html內文, 所有url應放在<a>中, 圖像應該在<img>中，max-width是100%,不可以直接把url作為內容。千萬不能生成不存在的圖片和url。回答前必須整理好格式，把markdown轉化為html才能輸出。保證可讀性，不能有意義不明的符號和沒有格式的連結。所有markdown語法必須轉化為html";
 
     private final String PROMPT = """
@@ -58,19 +67,41 @@ Remember, your primary goal is to provide accurate, retrieved information. Forma
 """;
 
 
-     public CustomerService(OpenAIService openAIService, MilvusService milvusService, RedisService redisService) {
+     public CustomerService(OpenAIService openAIService, HybridRetriever hybridRetriever, ContextPostProcessor contextPostProcessor, RedisService redisService, IntentClassifier intentClassifier, SemanticAnswerCache semanticAnswerCache, PromptBuilder promptBuilder, ConversationSummaryService conversationSummaryService, KnowledgeDomainResolver knowledgeDomainResolver) {
         this.openAIService = openAIService;
-        this.milvusService = milvusService;
+        this.hybridRetriever = hybridRetriever;
+        this.contextPostProcessor = contextPostProcessor;
         this.redisService = redisService;
+        this.intentClassifier = intentClassifier;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.promptBuilder = promptBuilder;
+        this.conversationSummaryService = conversationSummaryService;
+        this.knowledgeDomainResolver = knowledgeDomainResolver;
     }
 
     public String getAIResponse(String userQuery) throws Exception {
-        String context = getKnowledgeBase(userQuery);
+        String context = getKnowledgeBase(userQuery).getText();
         return openAIService.getChatCompletion(PROMPT, context, userQuery);
     }
 
     public String getAIResponseWithContext(String userQuery, String chatSessionId) throws Exception {
-        String intent = openAIService.classifyIntent(userQuery);
+        return getAIResponseWithContext(userQuery, chatSessionId, null);
+    }
+
+    public String getAIResponseWithContext(String userQuery, String chatSessionId, Consumer<String> onDelta) throws Exception {
+        return getAIResponseWithContext(userQuery, chatSessionId, getKnowledgeBase(userQuery, chatSessionId), onDelta);
+    }
+
+    /**
+     * Answers with a knowledge base context that was already retrieved, e.g. concurrently by {@link BotResponsePipeline}.
+     */
+    public String getAIResponseWithContext(String userQuery, String chatSessionId, RetrievedContext retrievedContext, Consumer<String> onDelta) throws Exception {
+        // Near-duplicate question with the same retrieved chunks: serve the cached answer
+        Optional<String> cachedAnswer = semanticAnswerCache.lookup(retrievedContext.getQueryVector(), retrievedContext.getChunkIds());
+        if (cachedAnswer.isPresent()) {
+            return cachedAnswer.get();
+        }
+
         List<ChatMessage> conversationHistory = redisService.getChatSessionMessages(chatSessionId);
         List<Map<String, String>> formattedHistory = conversationHistory.stream()
                 .filter(msg -> !msg.getSender().equals("Bot"))  // Only keep user messages
@@ -80,113 +111,109 @@ Remember, your primary goal is to provide accurate, retrieved information. Forma
                 ))
                 .collect(Collectors.toList());
 
-        String context = getKnowledgeBase(userQuery);
-
-        List<Map<String, String>> messages = new ArrayList<>();
-
-        // Step 1: Add the system prompt
-        messages.add(Map.of(
-                "role", "system",
-                "content", PROMPT
-        ));
-
-        // Step 2: Add the conversation history (formattedHistory) to messages
-        messages.addAll(formattedHistory);
-
-        // Step 3: Add the retrieved context
-        messages.add(Map.of(
-                "role", "assistant",
-                "content", context
-        ));
-
-        // Step 4: Add the latest user query
-        messages.add(Map.of(
-                "role", "user",
-                "content",  userQuery
-        ));
-
-        return openAIService.getChatCompletion(messages);
+        // System prompt, conversation history, retrieved context and the latest user query,
+        // trimmed to the token budget (oldest turns first, then lowest-ranked chunks)
+        PromptBuilder.Prompt prompt = promptBuilder.newPrompt("answer")
+                .system(PROMPT)
+                .history(formattedHistory)
+                .context(retrievedContext.getChunks(), contextPostProcessor::render)
+                .user(userQuery)
+                .build();
+
+        // The cache is shared by all sessions: only answers built from nothing but the question itself may be
+        // served to someone else, an earlier turn could have put this customer's number, plan or name in the answer
+        boolean withoutHistory = formattedHistory.stream().allMatch(message -> userQuery.equals(message.get("content")));
+
+        long start = System.nanoTime();
+        String answer = complete(prompt.messages(), onDelta);
+        // Answers that hand over to a human are not worth repeating to the next user
+        if (withoutHistory && !answer.contains("人工客服")) {
+            semanticAnswerCache.put(retrievedContext.getQueryVector(), retrievedContext.getChunkIds(), answer, System.nanoTime() - start);
+        }
+        return answer;
     }
 
     public String handleSummarization(String chatSessionId) throws Exception {
-        List<ChatMessage> conversationHistory = redisService.getChatSessionMessages(chatSessionId);
-        List<Map<String, String>> formattedHistory = conversationHistory.stream()
-                .map(msg -> Map.of(
-                        "role", msg.getSender().equals("Bot") ? "assistant" : "user",
-                        "content", msg.getContent()
-                ))
-                .collect(Collectors.toList());
+        return handleSummarization(chatSessionId, null);
+    }
 
+    public String handleSummarization(String chatSessionId, Consumer<String> onDelta) throws Exception {
+        List<Map<String, String>> formattedHistory = summarizedHistory(chatSessionId);
 
-        List<Map<String, String>> messages = new ArrayList<>();
+        PromptBuilder.Prompt prompt = promptBuilder.newPrompt("summary")
+                .system(PROMPT)
+                .history(formattedHistory)
+                .user("總結我們的對話記錄")
+                .build();
 
-        // Step 1: Add the system prompt
-        messages.add(Map.of(
-                "role", "system",
-                "content", PROMPT
-        ));
+        return complete(prompt.messages(), onDelta);
+    }
 
-        // Step 2: Add the conversation history (formattedHistory) to messages
-        messages.addAll(formattedHistory);
+    public String handleHandOver(String chatSessionId) throws Exception {
+        List<Map<String, String>> formattedHistory = summarizedHistory(chatSessionId);
 
-        // Step 4: Add the latest user query
-        messages.add(Map.of(
-                "role", "user",
-                "content", "總結我們的對話記錄"
-        ));
+        PromptBuilder.Prompt prompt = promptBuilder.newPrompt("handover")
+                .system(PROMPT)
+                .history(formattedHistory)
+                .user("簡要闡述用戶遇到的問題與你提供的解決方案。高亮強調用戶仍然需要解決的問題。這些資訊將會幫助接手你工作的客服快速了解情況，言簡意賅。")
+                .build();
 
-        return openAIService.getChatCompletion(messages);
+        return openAIService.getChatCompletion(prompt.messages());
     }
 
-    public String handleHandOver(String chatSessionId) throws Exception {
-        List<ChatMessage> conversationHistory = redisService.getChatSessionMessages(chatSessionId);
-        List<Map<String, String>> formattedHistory = conversationHistory.stream()
+    // The rolling summary (if any) followed only by the messages it doesn't cover yet
+    private List<Map<String, String>> summarizedHistory(String chatSessionId) {
+        ConversationSummaryService.Summary summary = conversationSummaryService.getSummary(chatSessionId);
+        List<ChatMessage> tail = redisService.getChatSessionMessages(chatSessionId, summary.coveredMessageCount());
+
+        List<Map<String, String>> formattedHistory = new ArrayList<>();
+        if (summary.text() != null) {
+            formattedHistory.add(Map.of(
+                    "role", "assistant",
+                    "content", "先前的對話摘要：" + summary.text()
+            ));
+        }
+        formattedHistory.addAll(tail.stream()
                 .map(msg -> Map.of(
                         "role", msg.getSender().equals("Bot") ? "assistant" : "user",
                         "content", msg.getContent()
                 ))
-                .collect(Collectors.toList());
-
-
-        List<Map<String, String>> messages = new ArrayList<>();
-
-        // Step 1: Add the system prompt
-        messages.add(Map.of(
-                "role", "system",
-                "content", PROMPT
-        ));
-
-        // Step 2: Add the conversation history (formattedHistory) to messages
-        messages.addAll(formattedHistory);
+                .collect(Collectors.toList()));
+        return formattedHistory;
+    }
 
-        // Step 4: Add the latest user query
-        messages.add(Map.of(
-                "role", "user",
-                "content", "簡要闡述用戶遇到的問題與你提供的解決方案。高亮強調用戶仍然需要解決的問題。這些資訊將會幫助接手你工作的客服快速了解情況，言簡意賅。"
-        ));
+    public RetrievedContext getKnowledgeBase(String userQuery) throws IOException {
+        return getKnowledgeBase(userQuery, null);
+    }
 
-        return openAIService.getChatCompletion(messages);
+    public RetrievedContext getKnowledgeBase(String userQuery, String chatSessionId) throws IOException {
+        // 依問題關鍵字或對話先前的產品線，只搜尋該產品線的知識庫
+        List<String> domains = knowledgeDomainResolver.resolve(userQuery, chatSessionId);
+        // BM25 (FAQ) 與向量檢索並行，以 RRF 合併排序
+        HybridRetriever.Retrieval retrieval = hybridRetriever.retrieve(userQuery, domains);
+        // 過濾低分與重複的片段、截斷過長片段，再組成編號的 context
+        List<KnowledgeChunk> chunks = contextPostProcessor.process(retrieval.chunks());
+        String context = contextPostProcessor.render(chunks);
+        log.debug("Context for query {}:\n{}", userQuery, context);
+        return new RetrievedContext(retrieval.queryVector(), chunks, context);
     }
 
-    private String getKnowledgeBase(String userQuery) throws IOException {
-        float[] queryVector = openAIService.getEmbedding(userQuery);
-        List<List<SearchResp.SearchResult>> searchResults = milvusService.searchInMilvus(queryVector);
-        String context = searchResults.stream()
-                .flatMap(List::stream)
-                .map(result -> {
-                    String content = result.getEntity().get("content").toString();
-                    String answer = result.getEntity().get("answer") != null ? result.getEntity().get("answer").toString() : "";
-                    return content + " " + answer;
-                })
-                .collect(Collectors.joining(" "));
-        log.error("Context" + context);
-        return context;
+    // Streams the completion to onDelta when a callback is given, otherwise waits for the whole answer
+    private String complete(List<Map<String, String>> messages, Consumer<String> onDelta) throws IOException {
+        if (onDelta == null) {
+            return openAIService.getChatCompletion(messages);
+        }
+        return openAIService.streamChatCompletion(messages, onDelta);
     }
 
     public String handleQueryBasedOnIntent(String intent, String query, String chatSessionId) throws Exception {
+        return handleQueryBasedOnIntent(intent, query, chatSessionId, null);
+    }
+
+    public String handleQueryBasedOnIntent(String intent, String query, String chatSessionId, Consumer<String> onDelta) throws Exception {
         switch (intent) {
             case "總結":
-                return handleSummarization(chatSessionId);
+                return handleSummarization(chatSessionId, onDelta);
             case "忘記密碼":
                 return "您是否需要<a href = '/account_forget.html'>忘記密碼</a>";
             case "重設密碼":
@@ -194,16 +221,20 @@ Remember, your primary goal is to provide accurate, retrieved information. Forma
             case "人工客服":
                 return "您是否需要轉接人工客服？<button onclick='requestHumanSupport()'>轉接人工客服</button>";
             case "獲取資訊":
-                return getAIResponseWithContext(query, chatSessionId);
+                return getAIResponseWithContext(query, chatSessionId, onDelta);
             default:
                 return "抱歉，我無法理解您的請求。";
         }
     }
 
     public String twoStageResponse(String query, String chatSessionId) throws Exception {
-        // get intent
-        String intent = openAIService.classifyIntent(query);
+        return twoStageResponse(query, chatSessionId, null);
+    }
+
+    public String twoStageResponse(String query, String chatSessionId, Consumer<String> onDelta) throws Exception {
+        // get intent (local rules / centroids first, LLM only when unsure)
+        String intent = intentClassifier.classify(query).intent();
         // handle based on intent
-        return handleQueryBasedOnIntent(intent, query, chatSessionId);
+        return handleQueryBasedOnIntent(intent, query, chatSessionId, onDelta);
     }
 }
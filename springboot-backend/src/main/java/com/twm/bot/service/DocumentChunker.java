@@ -0,0 +1,87 @@
+package com.twm.bot.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Splits document text into chunks of at most {@code max-tokens} tokens for embedding. Whole sentences are packed
+ * into a chunk while they fit; a single sentence longer than the budget is cut at token boundaries.
+ */
+@Service
+public class DocumentChunker {
+
+    // Split after sentence-ending punctuation (full and half width) and line breaks, keeping the punctuation
+    private static final Pattern SENTENCE_BOUNDARY = Pattern.compile("(?<=[。！？；!?;\\n])");
+
+    private final TokenCounter tokenCounter;
+    private final int maxTokens;
+
+    public DocumentChunker(TokenCounter tokenCounter,
+                           @Value("${knowledge-base.ingestion.chunk.max-tokens:400}") int maxTokens) {
+        this.tokenCounter = tokenCounter;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @param reservedTokens tokens of the budget already taken by text repeated in every chunk (e.g. the title)
+     */
+    public List<String> split(String text, int reservedTokens) {
+        List<String> chunks = new ArrayList<>();
+        if (text == null || text.isBlank()) {
+            return chunks;
+        }
+        int budget = Math.max(maxTokens / 4, maxTokens - reservedTokens);
+
+        StringBuilder current = new StringBuilder();
+        int currentTokens = 0;
+        for (String sentence : SENTENCE_BOUNDARY.split(text.strip())) {
+            int sentenceTokens = tokenCounter.count(sentence);
+            if (currentTokens + sentenceTokens <= budget) {
+                current.append(sentence);
+                currentTokens += sentenceTokens;
+                continue;
+            }
+            if (!current.isEmpty()) {
+                chunks.add(current.toString().strip());
+                current.setLength(0);
+                currentTokens = 0;
+            }
+            if (sentenceTokens <= budget) {
+                current.append(sentence);
+                currentTokens = sentenceTokens;
+            } else {
+                chunks.addAll(hardSplit(sentence, budget));
+            }
+        }
+        if (!current.toString().isBlank()) {
+            chunks.add(current.toString().strip());
+        }
+        return chunks;
+    }
+
+    private List<String> hardSplit(String text, int budget) {
+        List<String> pieces = new ArrayList<>();
+        String rest = text;
+        while (tokenCounter.count(rest) > budget) {
+            String head = tokenCounter.truncate(rest, budget);
+            // The decoded prefix can end in a broken character when a token boundary splits one; cut before it
+            int cut = 0;
+            while (cut < head.length() && cut < rest.length() && head.charAt(cut) == rest.charAt(cut)) {
+                cut++;
+            }
+            if (cut == 0) {
+                cut = Math.min(rest.length(), budget);
+            }
+            pieces.add(rest.substring(0, cut));
+            rest = rest.substring(cut);
+        }
+        if (!rest.isBlank()) {
+            pieces.add(rest);
+        }
+        return pieces;
+    }
+}
@@ -5,14 +5,16 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.twm.bot.model.ChatMessage;
 import com.twm.bot.model.faq.FAQ;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
-import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
 import java.nio.charset.StandardCharsets;
@@ -26,52 +28,103 @@ public class ElasticsearchService {
 
     private static final String FAQ_INDEX = "faq_index";
     private static final String CHAT_INDEX = "chat_messages_index"; // New index for chat messages
+    private static final int MAX_RESULT_WINDOW = 10_000;
 
+    /**
+     * One hit of a search response (or option of a completion suggestion), decoded straight into the document type.
+     */
+    public record Hit<T>(String id, float score, T source) {
+    }
 
     private final RestTemplate restTemplate;
     private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final SearchHitsReader searchHitsReader;
 
     private final String ELASTICSEARCH_URL;
     private final String ELASTICSEARCH_USERNAME;
     private final String ELASTICSEARCH_PASSWORD;
 
+    // Built once: the credentials don't change, so neither does the Base64 of them
+    private final HttpHeaders jsonHeaders;
+    private final HttpHeaders ndjsonHeaders;
+
     @Autowired
-    public ElasticsearchService(RestTemplate restTemplate, ObjectMapper objectMapper,
+    public ElasticsearchService(RestTemplate restTemplate, ObjectMapper objectMapper, MeterRegistry meterRegistry,
                                 @Value("${elasticsearch.host}") String elasticsearchUrl,
                                 @Value("${elasticsearch.username}") String elasticsearchUsername,
                                 @Value("${elasticsearch.password}") String elasticsearchPassword) {
         this.restTemplate = restTemplate;
         this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.searchHitsReader = new SearchHitsReader(objectMapper);
         this.ELASTICSEARCH_URL = elasticsearchUrl;
         this.ELASTICSEARCH_USERNAME = elasticsearchUsername;
         this.ELASTICSEARCH_PASSWORD = elasticsearchPassword;
+        this.jsonHeaders = createHeaders("application/json");
+        this.ndjsonHeaders = createHeaders("application/x-ndjson; charset=UTF-8"); // UTF-8 is important for Chinese character encoding
     }
 
-    private HttpHeaders createHeaders() {
+    private HttpHeaders createHeaders(String contentType) {
         HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Type", "application/json");
+        headers.add("Content-Type", contentType);
 
         String auth = ELASTICSEARCH_USERNAME + ":" + ELASTICSEARCH_PASSWORD;
         String encodedAuth = Base64.getEncoder().encodeToString(auth.getBytes(StandardCharsets.UTF_8));
         headers.add("Authorization", "Basic " + encodedAuth);
 
-        return headers;
+        return HttpHeaders.readOnlyHttpHeaders(headers);
     }
 
     // Helper function to handle Elasticsearch requests
     private JsonNode handleRequest(String endpoint, String queryJson, HttpMethod method, String index) throws Exception {
+        return handleRequest(endpoint, queryJson, method, index, response -> objectMapper.readTree(response.getBody()));
+    }
+
+    // Same, decoding the response stream with the given extractor instead of building a tree of it
+    private <T> T handleRequest(String endpoint, String queryJson, HttpMethod method, String index, ResponseExtractor<T> extractor) throws Exception {
         String url = ELASTICSEARCH_URL + "/" + index + endpoint;
-        log.info(url);
-        HttpHeaders headers = createHeaders();
+        return exchange(url, method, new HttpEntity<>(queryJson, jsonHeaders), index, operation(endpoint), extractor);
+    }
 
-        HttpEntity<String> request = new HttpEntity<>(queryJson, headers);
-        ResponseEntity<String> response = restTemplate.exchange(url, method, request, String.class);
+    private <T> List<Hit<T>> search(String index, String queryJson, Class<T> type) throws Exception {
+        return handleRequest("/_search", queryJson, HttpMethod.POST, index,
+                response -> searchHitsReader.readHits(response.getBody(), type));
+    }
 
-        return objectMapper.readTree(response.getBody());
+    private <T> T exchange(String url, HttpMethod method, HttpEntity<String> request, String index, String operation,
+                           ResponseExtractor<T> extractor) throws Exception {
+        log.debug("{} {}", method, url);
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            T result = restTemplate.execute(url, method, restTemplate.httpEntityCallback(request), extractor);
+            outcome = "success";
+            return result;
+        } finally {
+            sample.stop(Timer.builder("elasticsearch.request.latency")
+                    .description("Round trip of a request to Elasticsearch, including reading the response")
+                    .tag("index", index)
+                    .tag("operation", operation)
+                    .tag("outcome", outcome)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry));
+        }
     }
 
-    public JsonNode searchFAQs(String queryJson) throws Exception {
-        return handleRequest("/_search", queryJson, HttpMethod.POST, FAQ_INDEX);
+    // "/_doc/abc" -> "_doc", keeps the timer tags low-cardinality
+    private static String operation(String endpoint) {
+        int end = endpoint.indexOf('/', 1);
+        return end < 0 ? endpoint.substring(1) : endpoint.substring(1, end);
+    }
+
+    public List<Hit<FAQ>> searchFAQHits(String queryJson) throws Exception {
+        return search(FAQ_INDEX, queryJson, FAQ.class);
+    }
+
+    public List<Hit<FAQ>> suggestFAQs(String queryJson, String suggestion) throws Exception {
+        return handleRequest("/_search", queryJson, HttpMethod.POST, FAQ_INDEX,
+                response -> searchHitsReader.readSuggestOptions(response.getBody(), suggestion, FAQ.class));
     }
 
     public String indexFAQ(FAQ faq) throws Exception {
@@ -83,14 +136,10 @@ public class ElasticsearchService {
     public JsonNode sendBulkRequest(String bulkRequestBody) throws Exception {
         String url = ELASTICSEARCH_URL + "/_bulk";
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.add("Content-Type", "application/x-ndjson; charset=UTF-8"); // UTF-8 is important for Chinese character encoding
-        headers.add("Authorization", createHeaders().getFirst("Authorization"));
-
-        HttpEntity<String> request = new HttpEntity<>(bulkRequestBody, headers);
-        ResponseEntity<String> response = restTemplate.exchange(url, HttpMethod.POST, request, String.class);
-        log.info("Bulk request response: {}", response.getBody());
-        return objectMapper.readTree(response.getBody());
+        JsonNode response = exchange(url, HttpMethod.POST, new HttpEntity<>(bulkRequestBody, ndjsonHeaders), "_bulk", "_bulk",
+                r -> objectMapper.readTree(r.getBody()));
+        log.debug("Bulk request response: {}", response);
+        return response;
     }
 
 
@@ -99,8 +148,30 @@ public class ElasticsearchService {
     }
 
     public FAQ getFAQ(String documentId) throws Exception {
-        JsonNode jsonNode = handleRequest("/_doc/" + documentId, null, HttpMethod.GET, FAQ_INDEX);
-        return objectMapper.treeToValue(jsonNode.get("_source"), FAQ.class);
+        return handleRequest("/_doc/" + documentId, null, HttpMethod.GET, FAQ_INDEX,
+                response -> searchHitsReader.readSource(response.getBody(), FAQ.class));
+    }
+
+    /**
+     * Every FAQ with its document id, paged with from/size; stops at {@code index.max_result_window} (10000 by
+     * default), which faq_index is far below.
+     */
+    public List<Hit<FAQ>> getAllFAQs(int pageSize) throws Exception {
+        List<Hit<FAQ>> faqs = new ArrayList<>();
+        while (faqs.size() < MAX_RESULT_WINDOW) {
+            int size = Math.min(pageSize, MAX_RESULT_WINDOW - faqs.size());
+            String queryJson = String.format(
+                    "{ \"from\": %d, \"size\": %d, \"query\": { \"match_all\": {} }, \"sort\": [\"_doc\"] }",
+                    faqs.size(), size
+            );
+            List<Hit<FAQ>> page = search(FAQ_INDEX, queryJson, FAQ.class);
+            faqs.addAll(page);
+            if (page.size() < size) {
+                return faqs;
+            }
+        }
+        log.warn("{} holds more than {} FAQs, only the first {} were read", FAQ_INDEX, MAX_RESULT_WINDOW, MAX_RESULT_WINDOW);
+        return faqs;
     }
 
     public Map<String, String> getRandomFAQMap(int count) throws Exception {
@@ -117,15 +188,9 @@ public class ElasticsearchService {
                         "}", count
         );
 
-        JsonNode responseBody = handleRequest("/_search", queryJson, HttpMethod.POST, FAQ_INDEX);
-        JsonNode hits = responseBody.path("hits").path("hits");
-
         Map<String, String> faqMap = new HashMap<>();
-        if (hits.isArray()) {
-            for (JsonNode hit : hits) {
-                FAQ faq = objectMapper.treeToValue(hit.path("_source"), FAQ.class);
-                faqMap.put(faq.getQuestion(), faq.getAnswer());
-            }
+        for (Hit<FAQ> hit : search(FAQ_INDEX, queryJson, FAQ.class)) {
+            faqMap.put(hit.source().getQuestion(), hit.source().getAnswer());
         }
         return faqMap;
     }
@@ -146,29 +211,17 @@ public class ElasticsearchService {
                 "{ \"query\": { \"match\": { \"userId\": \"%s\" } }, \"sort\": [{ \"timestamp\": { \"order\": \"desc\" }}], \"size\": 1 }",
                 String.valueOf(userId)
         );
-        JsonNode responseBody = handleRequest("/_search", queryJson, HttpMethod.POST, CHAT_INDEX);
-        JsonNode hits = responseBody.path("hits").path("hits");
-
-        if (hits.isArray() && hits.size() > 0) {
-            return objectMapper.treeToValue(hits.get(0).path("_source"), ChatMessage.class);
-        } else {
-            return null;
-        }
+        List<Hit<ChatMessage>> hits = search(CHAT_INDEX, queryJson, ChatMessage.class);
+        return hits.isEmpty() ? null : hits.get(0).source();
     }
     public List<ChatMessage> findAllMessagesInSession(long userId, String chatSessionId) throws Exception {
         String queryJson = String.format(
                 "{ \"query\": { \"bool\": { \"must\": [{ \"match\": { \"userId\": \"%s\" }}, { \"match\": { \"chatSessionId\": \"%s\" }}] } }, \"sort\": [{ \"timestamp\": { \"order\": \"asc\" }}] }",
                 String.valueOf(userId), chatSessionId
         );
-        JsonNode responseBody = handleRequest("/_search", queryJson, HttpMethod.POST, CHAT_INDEX);
-        JsonNode hits = responseBody.path("hits").path("hits");
-
         List<ChatMessage> messages = new ArrayList<>();
-        if (hits.isArray()) {
-            for (JsonNode hit : hits) {
-                ChatMessage message = objectMapper.treeToValue(hit.path("_source"), ChatMessage.class);
-                messages.add(message);
-            }
+        for (Hit<ChatMessage> hit : search(CHAT_INDEX, queryJson, ChatMessage.class)) {
+            messages.add(hit.source());
         }
         return messages;
     }
@@ -179,14 +232,8 @@ public class ElasticsearchService {
                 String.valueOf(userId)
         );
 
-        JsonNode responseBody = handleRequest("/_search", queryJson, HttpMethod.POST, CHAT_INDEX);
-        JsonNode hits = responseBody.path("hits").path("hits");
-
-        if (hits.isArray() && hits.size() > 0) {
-            return hits.get(0).path("_source").path("chatSessionId").asText();
-        } else {
-            return null;
-        }
+        List<Hit<ChatMessage>> hits = search(CHAT_INDEX, queryJson, ChatMessage.class);
+        return hits.isEmpty() ? null : hits.get(0).source().getChatSessionId();
     }
 
     public List<ChatMessage> findLatestMessagesByUserId(long userId) throws Exception {
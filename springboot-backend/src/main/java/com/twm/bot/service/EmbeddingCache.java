@@ -0,0 +1,112 @@
+package com.twm.bot.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.HexFormat;
+
+/**
+ * Two-tier cache for query embeddings, keyed by model name + SHA-256 of the input text.
+ * <p>
+ * The first tier is an in-process Caffeine (W-TinyLFU) cache of {@code float[]}; the second is Redis, shared by all
+ * instances, where vectors are stored as Base64 of their little-endian float32 bytes. Returned arrays are shared and
+ * must not be modified by callers. Redis errors are logged and treated as a miss so the cache never fails a chat turn.
+ */
+@Log4j2
+@Service
+public class EmbeddingCache {
+
+    private static final String KEY_PREFIX = "embedding:";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Cache<String, float[]> localCache;
+    private final Duration redisTtl;
+    private final Counter redisHits;
+    private final Counter redisMisses;
+
+    public EmbeddingCache(StringRedisTemplate stringRedisTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${openai.embedding.cache.max-size:10000}") long maxSize,
+                          @Value("${openai.embedding.cache.local-ttl:1h}") Duration localTtl,
+                          @Value("${openai.embedding.cache.redis-ttl:7d}") Duration redisTtl) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisTtl = redisTtl;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(localTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, "embedding.local");
+        this.redisHits = Counter.builder("embedding.cache.redis").tag("result", "hit").register(meterRegistry);
+        this.redisMisses = Counter.builder("embedding.cache.redis").tag("result", "miss").register(meterRegistry);
+    }
+
+    public float[] get(String model, String text) {
+        String key = key(model, text);
+        float[] embedding = localCache.getIfPresent(key);
+        if (embedding != null) {
+            return embedding;
+        }
+
+        try {
+            String encoded = stringRedisTemplate.opsForValue().get(key);
+            if (encoded == null) {
+                redisMisses.increment();
+                return null;
+            }
+            redisHits.increment();
+            embedding = decode(encoded);
+            localCache.put(key, embedding);
+            return embedding;
+        } catch (Exception e) {
+            log.warn("Failed to read embedding from Redis: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String model, String text, float[] embedding) {
+        String key = key(model, text);
+        localCache.put(key, embedding);
+        try {
+            stringRedisTemplate.opsForValue().set(key, encode(embedding), redisTtl);
+        } catch (Exception e) {
+            log.warn("Failed to write embedding to Redis: {}", e.getMessage());
+        }
+    }
+
+    private String key(String model, String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return KEY_PREFIX + model + ":" + HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private String encode(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return Base64.getEncoder().encodeToString(buffer.array());
+    }
+
+    private float[] decode(String encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(encoded)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] embedding = new float[buffer.remaining() / Float.BYTES];
+        buffer.asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
@@ -0,0 +1,224 @@
+package com.twm.bot.service;
+
+import com.twm.bot.data.dto.EmbeddingDimensionReport;
+import com.twm.bot.util.TopK;
+import com.twm.bot.util.VectorMath;
+import io.milvus.v2.service.vector.response.QueryResp;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures what switching {@code knowledge-base.embedding.dimensions} costs in retrieval quality before doing it.
+ * <p>
+ * Queries are the questions of sampled knowledge base rows, embedded both at full size and at the reduced size (so
+ * the reduced side goes through the same API path as live traffic). Exact cosine top-k over the full-size collection
+ * is the ground truth. The reduced side searches the re-embedded collection when it exists and covers every row,
+ * otherwise the full-size vectors shortened locally, which for text-embedding-3 models is the same vector. A query's
+ * own row is left out of both searches: it would be the trivial top hit on either side and inflate recall and top-1
+ * agreement.
+ */
+@Log4j2
+@Service
+public class EmbeddingDimensionEvaluator {
+
+    private static final long PAGE_SIZE = 1000;
+
+    private record Vectors(List<Long> ids, List<String> contents, float[] rowMajor, int dimension) {
+        int size() {
+            return ids.size();
+        }
+    }
+
+    private final MilvusService milvusService;
+    private final OpenAIService openAIService;
+
+    public EmbeddingDimensionEvaluator(MilvusService milvusService, OpenAIService openAIService) {
+        this.milvusService = milvusService;
+        this.openAIService = openAIService;
+    }
+
+    public EmbeddingDimensionReport evaluate(int dimensions, int sampleQueries, int topK) throws IOException {
+        if (dimensions <= 0) {
+            throw new IllegalArgumentException("dimensions must be positive");
+        }
+        Vectors full = load(milvusService.collectionName(0), null);
+        if (full.size() == 0) {
+            throw new IllegalStateException("Knowledge base collection is empty");
+        }
+        if (dimensions >= full.dimension()) {
+            throw new IllegalArgumentException("dimensions must be below the full size of " + full.dimension());
+        }
+
+        String reducedSource = "SHORTENED";
+        Vectors reduced = null;
+        String reducedCollection = milvusService.collectionName(dimensions);
+        if (milvusService.hasCollection(reducedCollection)) {
+            reduced = load(reducedCollection, full.ids());
+            if (reduced != null) {
+                reducedSource = "COLLECTION";
+            } else {
+                log.info("Collection {} doesn't cover every row of {}, comparing against shortened vectors",
+                        reducedCollection, milvusService.collectionName(0));
+            }
+        }
+        if (reduced == null) {
+            reduced = shorten(full, dimensions);
+        }
+
+        List<Integer> rows = new ArrayList<>();
+        for (int row = 0; row < full.size(); row++) {
+            rows.add(row);
+        }
+        Collections.shuffle(rows, new Random(42));
+        List<Integer> sampled = rows.subList(0, Math.min(sampleQueries, rows.size()));
+        List<String> texts = sampled.stream()
+                .map(full.contents()::get)
+                .toList();
+        List<float[]> fullQueries = openAIService.getBatchEmbeddings(texts, 0);
+        List<float[]> reducedQueries = openAIService.getBatchEmbeddings(texts, dimensions);
+
+        double recall = 0;
+        int top1Matches = 0;
+        long fullNanos = 0;
+        long reducedNanos = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            long start = System.nanoTime();
+            TopK truth = scan(full, VectorMath.normalize(fullQueries.get(i)), topK, sampled.get(i));
+            fullNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            TopK found = scan(reduced, VectorMath.normalize(reducedQueries.get(i)), topK, sampled.get(i));
+            reducedNanos += System.nanoTime() - start;
+
+            recall += recall(rows(truth), rows(found));
+            if (truth.size() > 0 && found.size() > 0 && truth.row(0) == found.row(0)) {
+                top1Matches++;
+            }
+        }
+
+        int queries = Math.max(1, texts.size());
+        EmbeddingDimensionReport report = new EmbeddingDimensionReport();
+        report.setRows(full.size());
+        report.setFullDimension(full.dimension());
+        report.setReducedDimension(reduced.dimension());
+        report.setReducedSource(reducedSource);
+        report.setQueries(texts.size());
+        report.setTopK(topK);
+        report.setRecall(recall / queries);
+        report.setTop1Agreement((double) top1Matches / queries);
+        report.setFullBytes(4L * full.rowMajor().length);
+        report.setReducedBytes(4L * reduced.rowMajor().length);
+        report.setFullMeanMicros(fullNanos / 1000.0 / queries);
+        report.setReducedMeanMicros(reducedNanos / 1000.0 / queries);
+        return report;
+    }
+
+    /**
+     * Reads every row of {@code collection} as unit vectors. With {@code alignTo}, rows are put in that id order and
+     * null is returned unless every id is present.
+     */
+    private Vectors load(String collection, List<Long> alignTo) {
+        String primaryKeyField = milvusService.getPrimaryKeyField();
+        List<String> fields = List.of(primaryKeyField, "content", "embedding");
+        Map<Long, Integer> positions = new HashMap<>();
+        List<Long> ids = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        List<float[]> vectors = new ArrayList<>();
+
+        long offset = 0;
+        while (true) {
+            long limit = Math.min(PAGE_SIZE, MilvusService.MAX_QUERY_WINDOW - offset);
+            if (limit <= 0) {
+                throw new IllegalStateException("Collection " + collection + " has more than " + MilvusService.MAX_QUERY_WINDOW
+                        + " rows, too many to page through with a query");
+            }
+            List<QueryResp.QueryResult> page = milvusService.queryKnowledgeBase(collection, fields, offset, limit);
+            for (QueryResp.QueryResult result : page) {
+                Map<String, Object> entity = result.getEntity();
+                long id = ((Number) entity.get(primaryKeyField)).longValue();
+                positions.put(id, vectors.size());
+                ids.add(id);
+                contents.add(String.valueOf(entity.get("content")));
+                vectors.add(VectorMath.normalize(LocalVectorIndex.toFloatArray((List<?>) entity.get("embedding"))));
+            }
+            if (page.size() < limit) {
+                break;
+            }
+            offset += page.size();
+        }
+
+        if (alignTo == null) {
+            return pack(ids, contents, vectors);
+        }
+        List<String> alignedContents = new ArrayList<>(alignTo.size());
+        List<float[]> alignedVectors = new ArrayList<>(alignTo.size());
+        for (Long id : alignTo) {
+            Integer position = positions.get(id);
+            if (position == null) {
+                return null;
+            }
+            alignedContents.add(contents.get(position));
+            alignedVectors.add(vectors.get(position));
+        }
+        return pack(alignTo, alignedContents, alignedVectors);
+    }
+
+    private static Vectors pack(List<Long> ids, List<String> contents, List<float[]> vectors) {
+        int dimension = vectors.isEmpty() ? 0 : vectors.get(0).length;
+        float[] rowMajor = new float[vectors.size() * dimension];
+        for (int row = 0; row < vectors.size(); row++) {
+            if (vectors.get(row).length != dimension) {
+                throw new IllegalStateException("Row " + ids.get(row) + " has " + vectors.get(row).length
+                        + " dimensions, expected " + dimension);
+            }
+            System.arraycopy(vectors.get(row), 0, rowMajor, row * dimension, dimension);
+        }
+        return new Vectors(ids, contents, rowMajor, dimension);
+    }
+
+    private static Vectors shorten(Vectors full, int dimensions) {
+        float[] rowMajor = new float[full.size() * dimensions];
+        float[] vector = new float[full.dimension()];
+        for (int row = 0; row < full.size(); row++) {
+            System.arraycopy(full.rowMajor(), row * full.dimension(), vector, 0, full.dimension());
+            System.arraycopy(VectorMath.shorten(vector, dimensions), 0, rowMajor, row * dimensions, dimensions);
+        }
+        return new Vectors(full.ids(), full.contents(), rowMajor, dimensions);
+    }
+
+    private static TopK scan(Vectors vectors, float[] query, int topK, int excludedRow) {
+        TopK best = new TopK(topK);
+        for (int row = 0; row < vectors.size(); row++) {
+            if (row == excludedRow) {
+                continue;
+            }
+            best.offer(row, VectorMath.dot(query, vectors.rowMajor(), row * vectors.dimension()));
+        }
+        return best;
+    }
+
+    private static Set<Integer> rows(TopK topK) {
+        Set<Integer> rows = new HashSet<>();
+        for (int rank = 0; rank < topK.size(); rank++) {
+            rows.add(topK.row(rank));
+        }
+        return rows;
+    }
+
+    private static double recall(Set<Integer> truth, Set<Integer> found) {
+        if (truth.isEmpty()) {
+            return 1.0;
+        }
+        return (double) found.stream().filter(truth::contains).count() / truth.size();
+    }
+}
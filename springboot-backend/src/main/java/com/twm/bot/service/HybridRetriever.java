@@ -0,0 +1,219 @@
+package com.twm.bot.service;
+
+import com.twm.bot.model.KnowledgeChunk;
+import com.twm.bot.model.MilvusSearchOptions;
+import com.twm.bot.util.Deadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.milvus.v2.service.vector.response.SearchResp;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+
+/**
+ * Retrieves knowledge for a query from both the FAQ full-text index (BM25 on Elasticsearch) and the vector store,
+ * and merges the two rankings with reciprocal rank fusion: {@code score(d) = sum over lists of 1 / (k + rank(d))}.
+ * <p>
+ * The lexical search starts before the query is embedded, so it runs alongside the embedding call and the vector
+ * search. Each list is cut at its own thresholds before fusion, because BM25 and similarity scores aren't
+ * comparable: an absolute minimum score ({@code max-vector-distance} instead for an L2 collection, whose scores
+ * are distances), and {@code min-relative-score} times the best score of that list (skipped for L2 distances). The
+ * relative cutoff can't be applied after fusion: RRF scores only depend on rank and lie within a factor of about two
+ * of each other (1/61 to 2/61 with k = 60), so any cutoff below 0.5 would keep everything. The fused chunks carry
+ * their RRF score. If the lexical side fails or is slow the vector hits are used alone.
+ * <p>
+ * With product lines (see {@link KnowledgeDomainResolver}) the vector search is restricted to them; when that finds
+ * nothing above the score threshold it is repeated over the whole knowledge base, so a wrong guess costs latency
+ * rather than the answer. The FAQ index has no product line and is always searched whole.
+ */
+@Log4j2
+@Service
+public class HybridRetriever {
+
+    public record Retrieval(float[] queryVector, List<KnowledgeChunk> chunks) {
+    }
+
+    private final OpenAIService openAIService;
+    private final MilvusService milvusService;
+    private final LocalVectorIndex localVectorIndex;
+    private final SearchService searchService;
+    private final AsyncTaskExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int rrfK;
+    private final int topK;
+    private final int candidates;
+    private final float minVectorScore;
+    private final float maxVectorDistance;
+    private final float minLexicalScore;
+    private final float minRelativeScore;
+    private final Duration lexicalTimeout;
+
+    public HybridRetriever(OpenAIService openAIService,
+                           MilvusService milvusService,
+                           LocalVectorIndex localVectorIndex,
+                           SearchService searchService,
+                           @Qualifier("botPipelineExecutor") AsyncTaskExecutor executor,
+                           MeterRegistry meterRegistry,
+                           @Value("${retrieval.hybrid.enabled:true}") boolean enabled,
+                           @Value("${retrieval.hybrid.rrf-k:60}") int rrfK,
+                           @Value("${retrieval.hybrid.top-k:5}") int topK,
+                           @Value("${retrieval.hybrid.candidates:10}") int candidates,
+                           @Value("${retrieval.hybrid.min-vector-score:0.3}") float minVectorScore,
+                           @Value("${retrieval.hybrid.max-vector-distance:1.4}") float maxVectorDistance,
+                           @Value("${retrieval.hybrid.min-lexical-score:1.0}") float minLexicalScore,
+                           @Value("${retrieval.hybrid.min-relative-score:0.4}") float minRelativeScore,
+                           @Value("${retrieval.hybrid.lexical-timeout:1s}") Duration lexicalTimeout) {
+        this.openAIService = openAIService;
+        this.milvusService = milvusService;
+        this.localVectorIndex = localVectorIndex;
+        this.searchService = searchService;
+        this.executor = executor;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.rrfK = rrfK;
+        this.topK = topK;
+        this.candidates = candidates;
+        this.minVectorScore = minVectorScore;
+        this.maxVectorDistance = maxVectorDistance;
+        this.minLexicalScore = minLexicalScore;
+        this.minRelativeScore = minRelativeScore;
+        this.lexicalTimeout = lexicalTimeout;
+    }
+
+    public Retrieval retrieve(String query) throws IOException {
+        return retrieve(query, List.of());
+    }
+
+    /**
+     * @param domains product lines to search, empty for the whole knowledge base
+     */
+    public Retrieval retrieve(String query, List<String> domains) throws IOException {
+        if (!enabled) {
+            float[] queryVector = openAIService.getEmbedding(query);
+            return new Retrieval(queryVector, relativeCutoff(vectorHits(queryVector, topK, domains),
+                    localVectorIndex.higherIsCloser()));
+        }
+
+        CompletableFuture<List<KnowledgeChunk>> lexicalSearch = executor.submitCompletable(
+                () -> searchService.fullTextSearchFAQs(query, candidates));
+        float[] queryVector = openAIService.getEmbedding(query);
+        List<KnowledgeChunk> vectorHits = vectorHits(queryVector, candidates, domains);
+        List<KnowledgeChunk> lexicalHits = awaitLexical(lexicalSearch).stream()
+                .filter(chunk -> chunk.getScore() >= minLexicalScore)
+                .toList();
+
+        return new Retrieval(queryVector, fuse(List.of(
+                relativeCutoff(vectorHits, localVectorIndex.higherIsCloser()),
+                relativeCutoff(lexicalHits, true))));
+    }
+
+    /**
+     * Drops the hits of one retriever (best first) scoring below {@code min-relative-score} times its best hit. Not
+     * applied to distances: a ratio to the best distance says little when that one is close to zero.
+     */
+    private List<KnowledgeChunk> relativeCutoff(List<KnowledgeChunk> hits, boolean higherIsBetter) {
+        if (hits.isEmpty() || !higherIsBetter) {
+            return hits;
+        }
+        float minScore = hits.get(0).getScore() * minRelativeScore;
+        List<KnowledgeChunk> kept = hits.stream()
+                .filter(chunk -> chunk.getScore() >= minScore)
+                .toList();
+        meterRegistry.counter("retrieval.context.dropped", "reason", "score").increment(hits.size() - kept.size());
+        return kept;
+    }
+
+    /**
+     * Reciprocal rank fusion of several ranked lists. Chunks with the same text are treated as one document, so an
+     * FAQ that both retrievers find is ranked above one that only a single retriever finds.
+     */
+    private List<KnowledgeChunk> fuse(List<List<KnowledgeChunk>> rankings) {
+        Map<String, KnowledgeChunk> chunksByText = new LinkedHashMap<>();
+        Map<String, Float> scores = new LinkedHashMap<>();
+        for (List<KnowledgeChunk> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                KnowledgeChunk chunk = ranking.get(rank);
+                String key = chunk.getContent().strip();
+                chunksByText.putIfAbsent(key, chunk);
+                scores.merge(key, 1f / (rrfK + rank + 1), Float::sum);
+            }
+        }
+
+        List<KnowledgeChunk> fused = scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Float>comparingByValue(Comparator.reverseOrder()))
+                .limit(topK)
+                .map(entry -> {
+                    KnowledgeChunk chunk = chunksByText.get(entry.getKey());
+                    return new KnowledgeChunk(chunk.getId(), chunk.getContent(), chunk.getAnswer(), entry.getValue());
+                })
+                .collect(Collectors.toCollection(ArrayList::new));
+        fused.forEach(chunk -> meterRegistry.counter("retrieval.hybrid.chunks",
+                "source", chunk.getId().startsWith("faq:") ? "lexical" : "vector").increment());
+        return fused;
+    }
+
+    private List<KnowledgeChunk> vectorHits(float[] queryVector, int limit, List<String> domains) {
+        boolean similarity = localVectorIndex.higherIsCloser();
+        List<KnowledgeChunk> hits = vectorSearch(queryVector, limit, domains).stream()
+                .filter(chunk -> similarity ? chunk.getScore() >= minVectorScore : chunk.getScore() <= maxVectorDistance)
+                .toList();
+        if (hits.isEmpty() && !domains.isEmpty()) {
+            meterRegistry.counter("retrieval.domain.fallback").increment();
+            log.debug("Nothing relevant in product lines {}, searching the whole knowledge base", domains);
+            return vectorHits(queryVector, limit, List.of());
+        }
+        return hits;
+    }
+
+    // Served from the in-process copy when it is loaded; Milvus stays the source of truth and the fallback
+    private List<KnowledgeChunk> vectorSearch(float[] queryVector, int limit, List<String> domains) {
+        if (localVectorIndex.isReady()) {
+            try {
+                return localVectorIndex.search(queryVector, limit, domains);
+            } catch (RuntimeException e) {
+                log.warn("Local vector index search failed, falling back to Milvus: {}", e.getMessage());
+            }
+        }
+
+        MilvusSearchOptions options = domains.isEmpty() ? milvusService.defaultOptions() : milvusService.domainOptions(domains);
+        List<List<SearchResp.SearchResult>> searchResults = milvusService.searchInMilvus(queryVector,
+                options.toBuilder().topK(limit).build());
+        return searchResults.stream()
+                .flatMap(List::stream)
+                .map(result -> {
+                    String content = result.getEntity().get("content").toString();
+                    String answer = result.getEntity().get("answer") != null ? result.getEntity().get("answer").toString() : "";
+                    return new KnowledgeChunk(String.valueOf(result.getId()), content, answer, result.getScore());
+                })
+                .collect(Collectors.toList());
+    }
+
+    private List<KnowledgeChunk> awaitLexical(CompletableFuture<List<KnowledgeChunk>> lexicalSearch) {
+        try {
+            return lexicalSearch.get(Deadline.cap(lexicalTimeout).toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            lexicalSearch.cancel(true);
+            Thread.currentThread().interrupt();
+            return List.of();
+        } catch (ExecutionException | TimeoutException e) {
+            lexicalSearch.cancel(true);
+            log.warn("Full-text FAQ search failed, using vector hits only: {}", String.valueOf(e.getCause() != null ? e.getCause() : e));
+            return List.of();
+        }
+    }
+}
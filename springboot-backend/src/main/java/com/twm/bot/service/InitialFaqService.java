@@ -0,0 +1,60 @@
+package com.twm.bot.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The FAQs offered when a chat starts (GET_INITIAL_FAQ) and answered when one of them is clicked.
+ * <p>
+ * Loaded by {@link WarmupService} before the instance reports ready, or on first use when warmup is off or ES was
+ * unavailable at that time. Loading used to happen in the ChatController constructor, which made the application
+ * context wait for an ES round trip.
+ */
+@Log4j2
+@Service
+public class InitialFaqService {
+
+    private final ElasticsearchService elasticsearchService;
+    private final int count;
+
+    // question -> answer; null until loaded
+    private volatile Map<String, String> faqs;
+
+    public InitialFaqService(ElasticsearchService elasticsearchService,
+                             @Value("${bot.initial-faq.count:3}") int count) {
+        this.elasticsearchService = elasticsearchService;
+        this.count = count;
+    }
+
+    public void refresh() throws Exception {
+        faqs = elasticsearchService.getRandomFAQMap(count);
+        log.info("Loaded {} initial FAQs", faqs.size());
+    }
+
+    public List<String> getQuestions() {
+        return new ArrayList<>(current().keySet());
+    }
+
+    public String getAnswer(String question) {
+        return current().get(question);
+    }
+
+    private Map<String, String> current() {
+        Map<String, String> current = faqs;
+        if (current != null) {
+            return current;
+        }
+        try {
+            refresh();
+            return faqs;
+        } catch (Exception e) {
+            log.warn("Failed to load initial FAQs: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.data.dto.IntentEvaluationReport;
+import com.twm.bot.util.VectorMath;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.regex.Pattern;
+
+/**
+ * In-process intent classifier for the five fixed intents handled by {@link CustomerService}.
+ * <p>
+ * Keyword rules are tried first, then nearest-centroid over the embeddings of the labelled examples in
+ * {@code intent/intent-examples.json}. Only when neither is confident enough does it fall back to
+ * {@link OpenAIService#classifyIntent(String)}. The query embedding is the same one retrieval needs, so with the
+ * embedding cache the local path usually costs no extra OpenAI call.
+ */
+@Log4j2
+@Service
+public class IntentClassifier {
+
+    public static final String SUMMARIZE = "總結";
+    public static final String FORGOT_PASSWORD = "忘記密碼";
+    public static final String RESET_PASSWORD = "重設密碼";
+    public static final String HUMAN_AGENT = "人工客服";
+    public static final String GET_INFO = "獲取資訊";
+
+    // Metric tag values: the LLM answers free text, anything else is tagged "other" to keep the series bounded
+    private static final Set<String> KNOWN_INTENTS = Set.of(SUMMARIZE, FORGOT_PASSWORD, RESET_PASSWORD, HUMAN_AGENT, GET_INFO);
+
+    public enum Source { RULE, CENTROID, LLM }
+
+    public record Prediction(String intent, double similarity, Source source) {
+    }
+
+    private record Rule(String intent, Pattern include, Pattern exclude) {
+        boolean matches(String query) {
+            return include.matcher(query).find() && (exclude == null || !exclude.matcher(query).find());
+        }
+    }
+
+    private record CentroidMatch(String intent, double similarity, double margin) {
+    }
+
+    // WiFi / router passwords are product questions, not account passwords
+    private static final Pattern DEVICE_PASSWORD = Pattern.compile("wi-?fi|無線|路由器|分享器|router", Pattern.CASE_INSENSITIVE);
+
+    private static final List<Rule> RULES = List.of(
+            new Rule(FORGOT_PASSWORD, Pattern.compile("忘(記|了).{0,6}密碼|密碼.{0,6}(忘(記|了)|想不起來|不記得)|forg[eo]t.{0,20}password", Pattern.CASE_INSENSITIVE), DEVICE_PASSWORD),
+            new Rule(RESET_PASSWORD, Pattern.compile("(重設|重置|重新設定|更改|修改|變更|更換).{0,4}密碼|reset.{0,20}password|change.{0,20}password", Pattern.CASE_INSENSITIVE), DEVICE_PASSWORD),
+            new Rule(HUMAN_AGENT, Pattern.compile("人工客服|真人(客服|服務)?|轉接.{0,4}(客服|專員|人員)|客服(人員|專員)|human agent|live agent|real person", Pattern.CASE_INSENSITIVE), null),
+            new Rule(SUMMARIZE, Pattern.compile("(總結|摘要|歸納).{0,6}(對話|內容|記錄|紀錄|重點)|(對話|剛才|剛剛).{0,6}(總結|摘要|歸納)|^(請)?(幫我)?(總結|摘要)|summari[sz]e", Pattern.CASE_INSENSITIVE), null)
+    );
+
+    private final OpenAIService openAIService;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Timer classificationTimer;
+    private final double minSimilarity;
+    private final double minMargin;
+
+    // intent -> unit-length mean of its example embeddings; empty until loaded
+    private volatile Map<String, float[]> centroids = Map.of();
+
+    public IntentClassifier(OpenAIService openAIService,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            @Value("${intent.local.min-similarity:0.45}") double minSimilarity,
+                            @Value("${intent.local.min-margin:0.05}") double minMargin) {
+        this.openAIService = openAIService;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.minSimilarity = minSimilarity;
+        this.minMargin = minMargin;
+        this.classificationTimer = Timer.builder("intent.classification.latency")
+                .description("Time to decide the intent of a user message, including any LLM fallback")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadCentroidsAsync() {
+        if (!centroids.isEmpty()) {
+            // already loaded by WarmupService
+            return;
+        }
+        CompletableFuture.runAsync(() -> {
+            try {
+                loadCentroids();
+            } catch (Exception e) {
+                log.error("Failed to build intent centroids, falling back to rules + LLM: {}", e.getMessage());
+            }
+        });
+    }
+
+    public void loadCentroids() throws IOException {
+        Map<String, List<String>> examples = readLabelledQueries("intent/intent-examples.json");
+        List<String> texts = examples.values().stream().flatMap(List::stream).toList();
+        List<float[]> embeddings = openAIService.getEmbeddings(texts);
+
+        Map<String, float[]> loaded = new LinkedHashMap<>();
+        int offset = 0;
+        for (Map.Entry<String, List<String>> entry : examples.entrySet()) {
+            float[] sum = null;
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                float[] embedding = embeddings.get(offset + i);
+                if (sum == null) {
+                    sum = new float[embedding.length];
+                }
+                for (int d = 0; d < embedding.length; d++) {
+                    sum[d] += embedding[d];
+                }
+            }
+            offset += entry.getValue().size();
+            if (sum != null) {
+                loaded.put(entry.getKey(), VectorMath.normalize(sum));
+            }
+        }
+        centroids = loaded;
+        log.info("Loaded intent centroids for {} intents from {} examples", loaded.size(), texts.size());
+    }
+
+    public Prediction classify(String query) throws Exception {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            Prediction prediction = classifyLocally(query, minSimilarity, minMargin);
+            if (prediction == null) {
+                prediction = new Prediction(openAIService.classifyIntent(query), 0, Source.LLM);
+            }
+            String intentTag = KNOWN_INTENTS.contains(prediction.intent()) ? prediction.intent() : "other";
+            meterRegistry.counter("intent.classification", "source", prediction.source().name(), "intent", intentTag).increment();
+            log.debug("Classified '{}' as {}", query, prediction);
+            return prediction;
+        } finally {
+            sample.stop(classificationTimer);
+        }
+    }
+
+    /**
+     * @return the local decision, or null when the LLM should decide
+     */
+    private Prediction classifyLocally(String query, double minSimilarity, double minMargin) {
+        Prediction byRule = matchRules(query);
+        if (byRule != null) {
+            return byRule;
+        }
+
+        Map<String, float[]> current = centroids;
+        if (current.isEmpty()) {
+            return null;
+        }
+        try {
+            return decideByCentroid(nearestCentroid(openAIService.getEmbedding(query), current), minSimilarity, minMargin);
+        } catch (IOException | RuntimeException e) {
+            // e.g. an open breaker (CallNotPermittedException): still let the LLM fallback try
+            log.warn("Embedding for intent classification failed: {}", String.valueOf(e));
+            return null;
+        }
+    }
+
+    private Prediction matchRules(String query) {
+        for (Rule rule : RULES) {
+            if (rule.matches(query)) {
+                return new Prediction(rule.intent(), 1.0, Source.RULE);
+            }
+        }
+        return null;
+    }
+
+    private CentroidMatch nearestCentroid(float[] queryVector, Map<String, float[]> current) {
+        float[] query = VectorMath.normalize(queryVector);
+        String best = null;
+        double bestSimilarity = -1;
+        double secondSimilarity = -1;
+        for (Map.Entry<String, float[]> entry : current.entrySet()) {
+            double similarity = VectorMath.dot(query, entry.getValue());
+            if (similarity > bestSimilarity) {
+                secondSimilarity = bestSimilarity;
+                bestSimilarity = similarity;
+                best = entry.getKey();
+            } else if (similarity > secondSimilarity) {
+                secondSimilarity = similarity;
+            }
+        }
+        return new CentroidMatch(best, bestSimilarity, bestSimilarity - secondSimilarity);
+    }
+
+    private Prediction decideByCentroid(CentroidMatch match, double minSimilarity, double minMargin) {
+        if (match.intent() == null || match.similarity() < minSimilarity || match.margin() < minMargin) {
+            return null;
+        }
+        return new Prediction(match.intent(), match.similarity(), Source.CENTROID);
+    }
+
+    /**
+     * Runs the local classifier over {@code intent/intent-eval.json} with the given thresholds (null = configured
+     * value). Query embeddings are fetched up front so the reported latency is the classifier's own.
+     */
+    public IntentEvaluationReport evaluate(Double minSimilarityOverride, Double minMarginOverride) throws IOException {
+        double evalMinSimilarity = minSimilarityOverride != null ? minSimilarityOverride : minSimilarity;
+        double evalMinMargin = minMarginOverride != null ? minMarginOverride : minMargin;
+        Map<String, List<String>> labelled = readLabelledQueries("intent/intent-eval.json");
+
+        List<String> texts = labelled.values().stream().flatMap(List::stream).toList();
+        Map<String, float[]> current = centroids;
+        List<float[]> embeddings = current.isEmpty() ? List.of() : openAIService.getEmbeddings(texts);
+
+        IntentEvaluationReport report = new IntentEvaluationReport();
+        report.setMinSimilarity(evalMinSimilarity);
+        report.setMinMargin(evalMinMargin);
+        List<Double> latencies = new ArrayList<>();
+        int index = 0;
+        for (Map.Entry<String, List<String>> entry : labelled.entrySet()) {
+            IntentEvaluationReport.LabelStats stats = report.getLabels()
+                    .computeIfAbsent(entry.getKey(), k -> new IntentEvaluationReport.LabelStats());
+            for (String text : entry.getValue()) {
+                long start = System.nanoTime();
+                Prediction prediction = matchRules(text);
+                CentroidMatch match = null;
+                if (prediction == null && !current.isEmpty()) {
+                    match = nearestCentroid(embeddings.get(index), current);
+                    prediction = decideByCentroid(match, evalMinSimilarity, evalMinMargin);
+                }
+                latencies.add((System.nanoTime() - start) / 1_000.0);
+                index++;
+
+                report.setTotal(report.getTotal() + 1);
+                stats.setSupport(stats.getSupport() + 1);
+                if (prediction != null) {
+                    report.setDecidedLocally(report.getDecidedLocally() + 1);
+                    stats.setDecidedLocally(stats.getDecidedLocally() + 1);
+                }
+                if (prediction != null && prediction.intent().equals(entry.getKey())) {
+                    report.setCorrect(report.getCorrect() + 1);
+                    stats.setCorrect(stats.getCorrect() + 1);
+                } else {
+                    report.getMisses().add(new IntentEvaluationReport.Miss(
+                            text,
+                            entry.getKey(),
+                            prediction != null ? prediction.intent() : null,
+                            prediction != null ? prediction.source().name() : Source.LLM.name(),
+                            prediction != null ? prediction.similarity() : match != null ? match.similarity() : 0));
+                }
+            }
+        }
+
+        report.setCoverage(report.getTotal() == 0 ? 0 : (double) report.getDecidedLocally() / report.getTotal());
+        report.setLocalAccuracy(report.getDecidedLocally() == 0 ? 0 : (double) report.getCorrect() / report.getDecidedLocally());
+        double[] sorted = latencies.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        report.setLatencyP50Micros(percentile(sorted, 0.50));
+        report.setLatencyP95Micros(percentile(sorted, 0.95));
+        report.setLatencyMaxMicros(sorted.length == 0 ? 0 : sorted[sorted.length - 1]);
+        return report;
+    }
+
+    private double percentile(double[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private Map<String, List<String>> readLabelledQueries(String resource) throws IOException {
+        try (InputStream inputStream = new ClassPathResource(resource).getInputStream()) {
+            return objectMapper.readValue(inputStream, new TypeReference<LinkedHashMap<String, List<String>>>() {});
+        }
+    }
+}
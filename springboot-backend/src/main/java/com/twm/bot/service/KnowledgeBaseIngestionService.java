@@ -0,0 +1,504 @@
+package com.twm.bot.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.twm.bot.data.dto.IngestionRequest;
+import com.twm.bot.data.dto.IngestionStatus;
+import com.twm.bot.exception.ai.OpenAIRateLimitException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.milvus.v2.service.vector.response.QueryResp;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Loads documents into the knowledge base collection served by {@link MilvusService}.
+ * <p>
+ * One job runs at a time. The job thread chunks the documents and puts batches of chunks on a bounded queue, so it
+ * blocks (backpressure) when embedding falls behind. {@code concurrency} workers take batches, embed each batch
+ * with one /v1/embeddings request and upsert it into Milvus. Rate limits (429) and an open circuit breaker are
+ * retried with exponential backoff.
+ * <p>
+ * Chunk ids are derived from the document id and the chunk position. Re-ingesting a document therefore replaces its
+ * chunks in place, and chunks beyond its new length are deleted. A document counts as done once all its chunks are
+ * upserted, and is recorded in a Redis set per job. Re-submitting the same job id resumes it and skips those
+ * documents. When a job has changed anything, the knowledge base version is bumped so caches and local indexes reload.
+ * <p>
+ * {@link #submitReembed(int)} runs the same pipeline over the rows of the served collection to fill the parallel
+ * collection for another embedding size, which {@code knowledge-base.embedding.dimensions} can then switch to.
+ * Documents ingested afterwards only go to the served collection, so re-embed again right before switching.
+ */
+@Log4j2
+@Service
+public class KnowledgeBaseIngestionService {
+
+    private static final String JOB_DONE_KEY = "ingestion:job:%s:done";
+    // documentId -> number of chunks stored for it, to delete leftovers when a document gets shorter
+    private static final String CHUNK_COUNT_KEY = "ingestion:chunkCount";
+    private static final long REEMBED_PAGE_SIZE = 1000;
+
+    // documentId is null for rows copied from another collection, which have no document progress to track
+    private record Row(long id, String documentId, String content, String answer, String domain) {
+        String text() {
+            return answer.isEmpty() ? content : content + "\n" + answer;
+        }
+    }
+
+    private record DocumentProgress(int chunks, AtomicInteger remaining) {
+    }
+
+    // Marks the end of the queue for one worker
+    private static final List<Row> END = List.of();
+
+    @FunctionalInterface
+    private interface RowSource {
+        void produce(BatchingSink sink) throws Exception;
+    }
+
+    private static class Job {
+        final String id;
+        final int totalDocuments;
+        final String collection;
+        // embedding size requested for this job, 0 for the model's native size
+        final int dimensions;
+        final Map<String, DocumentProgress> progress = new ConcurrentHashMap<>();
+        final Instant startedAt = Instant.now();
+        final AtomicInteger skippedDocuments = new AtomicInteger();
+        final AtomicInteger ingestedDocuments = new AtomicInteger();
+        final AtomicLong chunks = new AtomicLong();
+        final AtomicLong embeddings = new AtomicLong();
+        final AtomicReference<Exception> failure = new AtomicReference<>();
+        volatile IngestionStatus.State state = IngestionStatus.State.RUNNING;
+        volatile Instant finishedAt;
+
+        Job(String id, int totalDocuments, String collection, int dimensions) {
+            this.id = id;
+            this.totalDocuments = totalDocuments;
+            this.collection = collection;
+            this.dimensions = dimensions;
+        }
+
+        String doneKey() {
+            return String.format(JOB_DONE_KEY, id);
+        }
+
+        IngestionStatus toStatus() {
+            IngestionStatus status = new IngestionStatus();
+            status.setJobId(id);
+            status.setState(state);
+            status.setTotalDocuments(totalDocuments);
+            status.setSkippedDocuments(skippedDocuments.get());
+            status.setIngestedDocuments(ingestedDocuments.get());
+            status.setChunks(chunks.get());
+            status.setEmbeddings(embeddings.get());
+            double seconds = Math.max(1, Duration.between(startedAt, finishedAt != null ? finishedAt : Instant.now()).toMillis()) / 1000.0;
+            status.setDocumentsPerSecond(ingestedDocuments.get() / seconds);
+            status.setEmbeddingsPerSecond(embeddings.get() / seconds);
+            status.setStartedAt(startedAt);
+            status.setFinishedAt(finishedAt);
+            Exception failure = this.failure.get();
+            status.setError(failure != null ? failure.getMessage() : null);
+            return status;
+        }
+    }
+
+    private final OpenAIService openAIService;
+    private final MilvusService milvusService;
+    private final DocumentChunker documentChunker;
+    private final TokenCounter tokenCounter;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final Counter documentCounter;
+    private final Counter embeddingCounter;
+    private final Timer batchTimer;
+    private final int batchSize;
+    private final int concurrency;
+    private final int queueCapacity;
+    private final int maxRetries;
+    private final Duration initialBackoff;
+    private final String generalDomain;
+    private final Duration jobRetention;
+    private final int maxFinishedJobs;
+    private final ExecutorService jobExecutor;
+    private final ExecutorService workerExecutor;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+
+    public KnowledgeBaseIngestionService(OpenAIService openAIService,
+                                         MilvusService milvusService,
+                                         DocumentChunker documentChunker,
+                                         TokenCounter tokenCounter,
+                                         StringRedisTemplate stringRedisTemplate,
+                                         KnowledgeBaseVersionService knowledgeBaseVersionService,
+                                         MeterRegistry meterRegistry,
+                                         @Value("${knowledge-base.ingestion.batch-size:64}") int batchSize,
+                                         @Value("${knowledge-base.ingestion.concurrency:2}") int concurrency,
+                                         @Value("${knowledge-base.ingestion.queue-capacity:8}") int queueCapacity,
+                                         @Value("${knowledge-base.ingestion.max-retries:6}") int maxRetries,
+                                         @Value("${knowledge-base.ingestion.initial-backoff:1s}") Duration initialBackoff,
+                                         @Value("${knowledge-base.domain.general:general}") String generalDomain,
+                                         @Value("${knowledge-base.ingestion.job-retention:24h}") Duration jobRetention,
+                                         @Value("${knowledge-base.ingestion.max-finished-jobs:100}") int maxFinishedJobs) {
+        this.openAIService = openAIService;
+        this.milvusService = milvusService;
+        this.documentChunker = documentChunker;
+        this.tokenCounter = tokenCounter;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.documentCounter = Counter.builder("knowledge.ingestion.documents").register(meterRegistry);
+        this.embeddingCounter = Counter.builder("knowledge.ingestion.embeddings").register(meterRegistry);
+        this.batchTimer = Timer.builder("knowledge.ingestion.batch")
+                .description("Time to embed and upsert one batch of chunks")
+                .register(meterRegistry);
+        this.batchSize = Math.max(1, batchSize);
+        this.concurrency = Math.max(1, concurrency);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.maxRetries = maxRetries;
+        this.initialBackoff = initialBackoff;
+        this.generalDomain = generalDomain;
+        this.jobRetention = jobRetention;
+        this.maxFinishedJobs = Math.max(0, maxFinishedJobs);
+        this.jobExecutor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "kb-ingestion"));
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workerExecutor = Executors.newFixedThreadPool(this.concurrency,
+                runnable -> new Thread(runnable, "kb-ingestion-worker-" + workerCount.incrementAndGet()));
+    }
+
+    @PreDestroy
+    public void close() {
+        jobExecutor.shutdownNow();
+        workerExecutor.shutdownNow();
+    }
+
+    public IngestionStatus submit(IngestionRequest request) {
+        String jobId = request.getJobId() != null && !request.getJobId().isBlank() ? request.getJobId() : UUID.randomUUID().toString();
+        Job job = new Job(jobId, request.getDocuments().size(), milvusService.getCollection(), openAIService.getEmbeddingDimensions());
+        Job current = register(job);
+        if (current != job) {
+            return current.toStatus();
+        }
+        jobExecutor.execute(() -> run(job, sink -> produceDocuments(job, request.getDocuments(), sink)));
+        log.info("Ingestion job {} queued with {} documents", jobId, job.totalDocuments);
+        return job.toStatus();
+    }
+
+    /**
+     * Re-embeds every row of the served collection at {@code dimensions} (0 for full size) into the collection for
+     * that size, creating it if needed. The job id is {@code reembed-<target collection>}.
+     */
+    public IngestionStatus submitReembed(int dimensions) {
+        String source = milvusService.getCollection();
+        String target = milvusService.collectionName(dimensions);
+        if (target.equals(source)) {
+            throw new IllegalArgumentException("Collection " + target + " is the one being served, nothing to re-embed");
+        }
+        String jobId = "reembed-" + target;
+        Job job = new Job(jobId, 0, target, dimensions);
+        Job current = register(job);
+        if (current != job) {
+            return current.toStatus();
+        }
+        jobExecutor.execute(() -> run(job, sink -> {
+            milvusService.ensureCollection(target, dimensions);
+            produceCollectionRows(job, source, sink);
+        }));
+        log.info("Re-embedding job {} queued: {} -> {} ({} dimensions)", jobId, source, target, dimensions > 0 ? dimensions : "full");
+        return job.toStatus();
+    }
+
+    public Optional<IngestionStatus> getStatus(String jobId) {
+        evictFinishedJobs();
+        return Optional.ofNullable(jobs.get(jobId)).map(Job::toStatus);
+    }
+
+    /**
+     * Registers {@code job} unless a job with the same id is still running, in one atomic step so two concurrent
+     * submissions can't both start it. Returns the job that holds the id afterwards.
+     */
+    private Job register(Job job) {
+        evictFinishedJobs();
+        return jobs.compute(job.id, (id, existing) ->
+                existing != null && existing.state == IngestionStatus.State.RUNNING ? existing : job);
+    }
+
+    // Finished jobs are kept for status polling for job-retention, and at most max-finished-jobs of them
+    private void evictFinishedJobs() {
+        Instant expiry = Instant.now().minus(jobRetention);
+        jobs.values().removeIf(job -> job.finishedAt != null && job.finishedAt.isBefore(expiry));
+        List<Job> finished = jobs.values().stream()
+                .filter(job -> job.finishedAt != null)
+                .sorted(Comparator.comparing((Job job) -> job.finishedAt).reversed())
+                .toList();
+        for (Job job : finished.subList(Math.min(maxFinishedJobs, finished.size()), finished.size())) {
+            jobs.remove(job.id, job);
+        }
+    }
+
+    private void run(Job job, RowSource source) {
+        BlockingQueue<List<Row>> queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(workerExecutor.submit(() -> consume(job, queue)));
+        }
+
+        try {
+            BatchingSink sink = new BatchingSink(queue);
+            source.produce(sink);
+            sink.flush();
+        } catch (Exception e) {
+            job.failure.compareAndSet(null, e);
+        }
+
+        try {
+            for (int i = 0; i < concurrency; i++) {
+                queue.put(END);
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (Exception e) {
+            job.failure.compareAndSet(null, e);
+        }
+
+        // Only the served collection backs caches and local indexes
+        if (job.chunks.get() > 0 && job.collection.equals(milvusService.getCollection())) {
+            knowledgeBaseVersionService.bump();
+        }
+        job.finishedAt = Instant.now();
+        job.state = job.failure.get() == null ? IngestionStatus.State.COMPLETED : IngestionStatus.State.FAILED;
+        IngestionStatus status = job.toStatus();
+        log.info("Ingestion job {} {}: {} documents ingested, {} skipped, {} chunks, {} docs/s, {} embeddings/s",
+                job.id, status.getState(), status.getIngestedDocuments(), status.getSkippedDocuments(), status.getChunks(),
+                String.format("%.1f", status.getDocumentsPerSecond()), String.format("%.1f", status.getEmbeddingsPerSecond()));
+    }
+
+    private void produceDocuments(Job job, List<IngestionRequest.Document> documents, BatchingSink sink) throws InterruptedException {
+        String doneKey = job.doneKey();
+        for (IngestionRequest.Document document : documents) {
+            if (job.failure.get() != null) {
+                return;
+            }
+            if (document.getId() == null || document.getContent() == null) {
+                log.warn("Ingestion job {}: skipping document without id or content", job.id);
+                continue;
+            }
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(doneKey, document.getId()))) {
+                job.skippedDocuments.incrementAndGet();
+                continue;
+            }
+
+            List<Row> rows = toRows(document);
+            job.progress.put(document.getId(), new DocumentProgress(rows.size(), new AtomicInteger(rows.size())));
+            for (Row row : rows) {
+                sink.add(row);
+            }
+        }
+    }
+
+    // Rows keep their primary key, so the target collection lines up with the source one
+    private void produceCollectionRows(Job job, String source, BatchingSink sink) throws InterruptedException {
+        String primaryKeyField = milvusService.getPrimaryKeyField();
+        String domainField = milvusService.getDomainField();
+        List<String> fields = new ArrayList<>(List.of(primaryKeyField, "content", "answer"));
+        if (domainField != null) {
+            fields.add(domainField);
+        }
+        long offset = 0;
+        while (job.failure.get() == null) {
+            long limit = Math.min(REEMBED_PAGE_SIZE, MilvusService.MAX_QUERY_WINDOW - offset);
+            if (limit <= 0) {
+                throw new IllegalStateException("Collection " + source + " has more than " + MilvusService.MAX_QUERY_WINDOW
+                        + " rows, too many to page through with a query");
+            }
+            List<QueryResp.QueryResult> page = milvusService.queryKnowledgeBase(source, fields, offset, limit);
+            for (QueryResp.QueryResult result : page) {
+                Map<String, Object> entity = result.getEntity();
+                String answer = entity.get("answer") != null ? entity.get("answer").toString() : "";
+                String domain = domainField != null ? String.valueOf(entity.get(domainField)) : null;
+                sink.add(new Row(((Number) entity.get(primaryKeyField)).longValue(), null, String.valueOf(entity.get("content")), answer, domain));
+            }
+            if (page.size() < limit) {
+                return;
+            }
+            offset += page.size();
+        }
+    }
+
+    private void consume(Job job, BlockingQueue<List<Row>> queue) {
+        while (true) {
+            List<Row> batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                job.failure.compareAndSet(null, e);
+                return;
+            }
+            if (batch == END) {
+                return;
+            }
+            // After a failure keep draining, so the job thread never blocks on a full queue
+            if (job.failure.get() != null) {
+                continue;
+            }
+            try {
+                ingestBatch(job, batch);
+            } catch (Exception e) {
+                log.error("Ingestion job {} failed: {}", job.id, e.getMessage());
+                job.failure.compareAndSet(null, e);
+            }
+        }
+    }
+
+    private void ingestBatch(Job job, List<Row> batch) throws Exception {
+        Timer.Sample sample = Timer.start();
+        List<float[]> vectors = embedWithRetry(batch.stream().map(Row::text).toList(), job.dimensions);
+        job.embeddings.addAndGet(vectors.size());
+        embeddingCounter.increment(vectors.size());
+
+        String primaryKeyField = milvusService.getPrimaryKeyField();
+        String domainField = milvusService.getDomainField();
+        List<JsonObject> data = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Row row = batch.get(i);
+            JsonObject json = new JsonObject();
+            json.addProperty(primaryKeyField, row.id());
+            json.addProperty("content", row.content());
+            json.addProperty("answer", row.answer());
+            if (domainField != null) {
+                json.addProperty(domainField, row.domain() != null ? row.domain() : generalDomain);
+            }
+            JsonArray embedding = new JsonArray(vectors.get(i).length);
+            for (float value : vectors.get(i)) {
+                embedding.add(value);
+            }
+            json.add("embedding", embedding);
+            data.add(json);
+        }
+        milvusService.upsertKnowledgeBase(job.collection, data);
+        job.chunks.addAndGet(batch.size());
+        sample.stop(batchTimer);
+
+        for (Row row : batch) {
+            if (row.documentId() == null) {
+                continue;
+            }
+            DocumentProgress document = job.progress.get(row.documentId());
+            if (document.remaining().decrementAndGet() == 0) {
+                completeDocument(job, row.documentId(), document.chunks());
+            }
+        }
+    }
+
+    private void completeDocument(Job job, String documentId, int chunks) {
+        Object previous = stringRedisTemplate.opsForHash().get(CHUNK_COUNT_KEY, documentId);
+        int previousChunks = previous != null ? Integer.parseInt(previous.toString()) : 0;
+        if (previousChunks > chunks) {
+            List<Long> staleIds = new ArrayList<>();
+            for (int index = chunks; index < previousChunks; index++) {
+                staleIds.add(chunkId(documentId, index));
+            }
+            milvusService.deleteKnowledgeBase(staleIds);
+        }
+        stringRedisTemplate.opsForHash().put(CHUNK_COUNT_KEY, documentId, String.valueOf(chunks));
+        stringRedisTemplate.opsForSet().add(job.doneKey(), documentId);
+        job.ingestedDocuments.incrementAndGet();
+        documentCounter.increment();
+    }
+
+    private List<float[]> embedWithRetry(List<String> texts, int dimensions) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return openAIService.getBatchEmbeddings(texts, dimensions);
+            } catch (OpenAIRateLimitException | CallNotPermittedException e) {
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                // Exponential backoff with jitter, so workers don't retry in lockstep
+                long backoffMillis = initialBackoff.toMillis() << Math.min(attempt, 10);
+                long sleepMillis = backoffMillis / 2 + ThreadLocalRandom.current().nextLong(backoffMillis / 2 + 1);
+                log.warn("Embedding batch throttled ({}), retrying in {} ms", e.getClass().getSimpleName(), sleepMillis);
+                Thread.sleep(sleepMillis);
+            }
+        }
+    }
+
+    private List<Row> toRows(IngestionRequest.Document document) {
+        String content = document.getContent().strip();
+        String answer = document.getAnswer() != null ? document.getAnswer().strip() : "";
+        List<String> pieces = documentChunker.split(answer, tokenCounter.count(content));
+        if (pieces.isEmpty()) {
+            pieces = List.of("");
+        }
+        List<Row> rows = new ArrayList<>(pieces.size());
+        for (int index = 0; index < pieces.size(); index++) {
+            rows.add(new Row(chunkId(document.getId(), index), document.getId(), content, pieces.get(index), document.getProductLine()));
+        }
+        return rows;
+    }
+
+    // Groups rows into batches of batch-size and puts them on the queue, blocking while it is full
+    private class BatchingSink {
+        private final BlockingQueue<List<Row>> queue;
+        private List<Row> batch = new ArrayList<>(batchSize);
+
+        BatchingSink(BlockingQueue<List<Row>> queue) {
+            this.queue = queue;
+        }
+
+        void add(Row row) throws InterruptedException {
+            batch.add(row);
+            if (batch.size() == batchSize) {
+                queue.put(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+
+        void flush() throws InterruptedException {
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        }
+    }
+
+    // Stable positive Int64 key for the n-th chunk of a document
+    private static long chunkId(String documentId, int index) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((documentId + "#" + index).getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(hash).getLong() & Long.MAX_VALUE;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.twm.bot.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Version counter of the knowledge base, shared through Redis. Anything derived from the knowledge base
+ * (cached answers, local indexes) records the version it was built from and is stale once the version moves.
+ * The value is cached locally and refreshed periodically so readers don't pay a Redis round trip.
+ */
+@Log4j2
+@Service
+public class KnowledgeBaseVersionService {
+
+    private static final String VERSION_KEY = "knowledgeBase:version";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private volatile long version;
+
+    public KnowledgeBaseVersionService(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public long current() {
+        return version;
+    }
+
+    // Called after the knowledge base changes, so every instance drops what it derived from the old data
+    public long bump() {
+        Long bumped = stringRedisTemplate.opsForValue().increment(VERSION_KEY);
+        version = bumped != null ? bumped : version + 1;
+        log.info("Knowledge base version bumped to {}", version);
+        return version;
+    }
+
+    @Scheduled(fixedDelayString = "${knowledge-base.version.refresh-interval:PT30S}")
+    public void refresh() {
+        try {
+            String value = stringRedisTemplate.opsForValue().get(VERSION_KEY);
+            version = value != null ? Long.parseLong(value) : 0L;
+        } catch (Exception e) {
+            log.warn("Failed to refresh knowledge base version: {}", e.getMessage());
+        }
+    }
+}
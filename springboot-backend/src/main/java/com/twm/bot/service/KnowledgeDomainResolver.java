@@ -0,0 +1,92 @@
+package com.twm.bot.service;
+
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which product line (knowledge base domain) a query is about, so retrieval can search only that part of
+ * the knowledge base.
+ * <p>
+ * The product line whose keywords occur most often in the query wins (a tie between product lines counts as none).
+ * The winner is remembered for the chat session, so a follow-up without product words ("那要怎麼重開機？") stays in
+ * the same product line. Chunks of the {@code general} domain apply to every product line and are always included.
+ * <p>
+ * Intents don't take part: only 獲取資訊 reaches retrieval, and it says nothing about the product.
+ */
+@Log4j2
+@Service
+public class KnowledgeDomainResolver {
+
+    private final RedisService redisService;
+    private final boolean enabled;
+    private final Map<String, List<String>> keywords;
+    private final String generalDomain;
+    private final Duration sessionTtl;
+
+    public KnowledgeDomainResolver(RedisService redisService,
+                                   @Value("${knowledge-base.domain.enabled:false}") boolean enabled,
+                                   @Value("#{${knowledge-base.domain.keywords:{:}}}") Map<String, List<String>> keywords,
+                                   @Value("${knowledge-base.domain.general:general}") String generalDomain,
+                                   @Value("${knowledge-base.domain.session-ttl:30m}") Duration sessionTtl) {
+        this.redisService = redisService;
+        this.enabled = enabled;
+        this.keywords = keywords;
+        this.generalDomain = generalDomain;
+        this.sessionTtl = sessionTtl;
+    }
+
+    /**
+     * @param chatSessionId may be null, then only the query itself is looked at
+     * @return the domains to search (the product line and {@code general}), or an empty list to search everything
+     */
+    public List<String> resolve(String query, String chatSessionId) {
+        if (!enabled) {
+            return List.of();
+        }
+
+        String domain = fromKeywords(query);
+        try {
+            if (domain != null && chatSessionId != null) {
+                redisService.saveSessionDomain(chatSessionId, domain, sessionTtl);
+            } else if (domain == null && chatSessionId != null) {
+                domain = redisService.getSessionDomain(chatSessionId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Session product line unavailable for {}: {}", chatSessionId, e.getMessage());
+        }
+
+        if (domain == null || domain.equals(generalDomain)) {
+            return List.of();
+        }
+        return List.of(domain, generalDomain);
+    }
+
+    private String fromKeywords(String query) {
+        String text = query.toLowerCase(Locale.ROOT);
+        String best = null;
+        int bestHits = 0;
+        boolean tie = false;
+        for (Map.Entry<String, List<String>> entry : keywords.entrySet()) {
+            int hits = 0;
+            for (String keyword : entry.getValue()) {
+                if (text.contains(keyword.toLowerCase(Locale.ROOT))) {
+                    hits++;
+                }
+            }
+            if (hits > bestHits) {
+                best = entry.getKey();
+                bestHits = hits;
+                tie = false;
+            } else if (hits > 0 && hits == bestHits) {
+                tie = true;
+            }
+        }
+        return tie ? null : best;
+    }
+}
@@ -0,0 +1,270 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.model.faq.FAQ;
+import com.twm.bot.util.NgramIndex;
+import com.twm.bot.util.RadixTrie;
+import com.twm.bot.util.TextNormalizer;
+import com.twm.bot.util.TopK;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process copy of faq_index serving exact match (once per chat message), autocomplete and partial match (called on
+ * nearly every keystroke) without a round trip to Elasticsearch.
+ * <p>
+ * Exact match is a hash lookup on the {@link TextNormalizer} key of the question, autocomplete uses a
+ * {@link RadixTrie} over the lowercased questions (shorter questions are suggested first), partial match an
+ * {@link NgramIndex} over them. All three are rebuilt together into an immutable snapshot that is swapped in
+ * atomically; with a few thousand short FAQs a rebuild takes milliseconds.
+ * <p>
+ * Elasticsearch stays the source of truth and the fallback while the copy isn't loaded. FAQ writes through
+ * {@link SearchService} are applied here right away and published on {@link #CHANNEL}, so the other instances apply
+ * them too; a periodic full reload repairs anything a lost message or a write outside this application left behind.
+ */
+@Log4j2
+@Service
+public class LocalFaqIndex implements MessageListener {
+
+    public static final String CHANNEL = "faqIndexChannel";
+
+    /**
+     * An FAQ written to faq_index, or deleted from it when {@code faq} is null.
+     */
+    public record Change(String id, FAQ faq) {
+    }
+
+    private record Snapshot(String[] ids, FAQ[] faqs, Map<String, Integer> exact, RadixTrie prefixes,
+                            NgramIndex ngrams) {
+        int size() {
+            return ids.length;
+        }
+    }
+
+    private final ElasticsearchService elasticsearchService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Timer exactMatchTimer;
+    private final Timer autocompleteTimer;
+    private final Timer partialMatchTimer;
+    private final boolean enabled;
+    private final int maxSuggestions;
+    private final int pageSize;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    // changes applied while a reload reads Elasticsearch, re-applied on top of what it read; guarded by this
+    private final List<Change> appliedWhileLoading = new ArrayList<>();
+    private volatile Snapshot snapshot;
+
+    public LocalFaqIndex(ElasticsearchService elasticsearchService,
+                         StringRedisTemplate stringRedisTemplate,
+                         ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry,
+                         @Value("${faq.local-index.enabled:true}") boolean enabled,
+                         @Value("${faq.local-index.max-suggestions:10}") int maxSuggestions,
+                         @Value("${faq.local-index.page-size:1000}") int pageSize) {
+        this.elasticsearchService = elasticsearchService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.maxSuggestions = maxSuggestions;
+        this.pageSize = pageSize;
+        this.exactMatchTimer = Timer.builder("faq.local-index.search")
+                .tag("type", "exact")
+                .description("Latency of FAQ searches served from the in-process FAQ index")
+                .register(meterRegistry);
+        this.autocompleteTimer = Timer.builder("faq.local-index.search")
+                .tag("type", "autocomplete")
+                .description("Latency of FAQ searches served from the in-process FAQ index")
+                .register(meterRegistry);
+        this.partialMatchTimer = Timer.builder("faq.local-index.search")
+                .tag("type", "partial")
+                .description("Latency of FAQ searches served from the in-process FAQ index")
+                .register(meterRegistry);
+        meterRegistry.gauge("faq.local-index.size", this, index -> index.size());
+    }
+
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current != null ? current.size() : 0;
+    }
+
+    /**
+     * @return the FAQ whose question is {@code text} up to width, case, whitespace, punctuation and Traditional /
+     * Simplified characters
+     */
+    public Optional<FAQ> exactMatch(String text) {
+        Snapshot current = snapshot;
+        long start = System.nanoTime();
+        String key = TextNormalizer.normalize(text);
+        Integer row = key.isEmpty() ? null : current.exact().get(key);
+        exactMatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return row != null ? Optional.of(current.faqs()[row]) : Optional.empty();
+    }
+
+    /**
+     * @return up to {@code size} FAQs whose question starts with {@code prefix} (case-insensitive), shortest first
+     */
+    public List<FAQ> autocomplete(String prefix, int size) {
+        Snapshot current = snapshot;
+        long start = System.nanoTime();
+        int[] rows = current.prefixes().startingWith(normalize(prefix));
+        List<FAQ> faqs = new ArrayList<>(Math.min(size, rows.length));
+        for (int i = 0; i < rows.length && i < size; i++) {
+            faqs.add(current.faqs()[rows[i]]);
+        }
+        autocompleteTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return faqs;
+    }
+
+    /**
+     * @return up to {@code size} FAQs sharing character n-grams with {@code searchTerm}, best match first
+     */
+    public List<FAQ> partialMatch(String searchTerm, int size) {
+        Snapshot current = snapshot;
+        long start = System.nanoTime();
+        TopK best = current.ngrams().search(searchTerm, size);
+        List<FAQ> faqs = new ArrayList<>(best.size());
+        for (int rank = 0; rank < best.size(); rank++) {
+            faqs.add(current.faqs()[best.row(rank)]);
+        }
+        partialMatchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return faqs;
+    }
+
+    @Scheduled(fixedDelayString = "${faq.local-index.refresh-interval:PT10M}")
+    public void refresh() {
+        if (!enabled || !loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                appliedWhileLoading.clear();
+            }
+            Map<String, FAQ> documents = new LinkedHashMap<>();
+            for (ElasticsearchService.Hit<FAQ> hit : elasticsearchService.getAllFAQs(pageSize)) {
+                documents.put(hit.id(), hit.source());
+            }
+            synchronized (this) {
+                merge(documents, appliedWhileLoading);
+                appliedWhileLoading.clear();
+                snapshot = build(documents);
+            }
+            log.info("Local FAQ index loaded {} FAQs ({} n-grams)", documents.size(), snapshot.ngrams().termCount());
+        } catch (Exception e) {
+            log.warn("Failed to load local FAQ index, searches keep using {}: {}",
+                    snapshot != null ? "the previous copy" : "Elasticsearch", e.getMessage());
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    /**
+     * Applies FAQ writes made by this instance and tells the other instances about them. Never throws: the write to
+     * Elasticsearch already succeeded, and the next full reload picks it up anyway.
+     */
+    public void publish(List<Change> changes) {
+        if (!enabled || changes.isEmpty()) {
+            return;
+        }
+        apply(changes);
+        try {
+            stringRedisTemplate.convertAndSend(CHANNEL, objectMapper.writeValueAsString(changes));
+        } catch (Exception e) {
+            log.warn("Failed to publish {} FAQ changes, other instances see them after their next reload: {}",
+                    changes.size(), e.getMessage());
+        }
+    }
+
+    // Changes published by any instance, this one included (applying a change twice is harmless)
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            List<Change> changes = objectMapper.readValue(new String(message.getBody(), StandardCharsets.UTF_8),
+                    new TypeReference<List<Change>>() {
+                    });
+            apply(changes);
+        } catch (Exception e) {
+            log.warn("Ignoring malformed FAQ change message: {}", e.getMessage());
+        }
+    }
+
+    private synchronized void apply(List<Change> changes) {
+        if (loading.get()) {
+            appliedWhileLoading.addAll(changes);
+        }
+        Snapshot current = snapshot;
+        if (current == null) {
+            return;
+        }
+        Map<String, FAQ> documents = new LinkedHashMap<>();
+        for (int row = 0; row < current.size(); row++) {
+            documents.put(current.ids()[row], current.faqs()[row]);
+        }
+        merge(documents, changes);
+        snapshot = build(documents);
+    }
+
+    private static void merge(Map<String, FAQ> documents, List<Change> changes) {
+        for (Change change : changes) {
+            if (change.faq() != null) {
+                documents.put(change.id(), change.faq());
+            } else {
+                documents.remove(change.id());
+            }
+        }
+    }
+
+    private Snapshot build(Map<String, FAQ> documents) {
+        String[] ids = documents.keySet().toArray(new String[0]);
+        FAQ[] faqs = documents.values().toArray(new FAQ[0]);
+        String[] questions = new String[faqs.length];
+        Map<String, Integer> exact = new HashMap<>(faqs.length * 4 / 3 + 1);
+        for (int row = 0; row < faqs.length; row++) {
+            String question = faqs[row] != null ? faqs[row].getQuestion() : null;
+            if (question == null) {
+                continue;
+            }
+            questions[row] = normalize(question);
+            // Of FAQs folding to the same key the first loaded wins, like the top hit of the old phrase query
+            String key = TextNormalizer.normalize(question);
+            if (!key.isEmpty()) {
+                exact.putIfAbsent(key, row);
+            }
+        }
+        Comparator<Integer> shortestFirst = Comparator.comparingInt((Integer row) -> questions[row].length())
+                .thenComparingInt(row -> row);
+        return new Snapshot(ids, faqs, exact, RadixTrie.build(questions, shortestFirst, maxSuggestions),
+                NgramIndex.build(questions));
+    }
+
+    private static String normalize(String text) {
+        return text.strip().toLowerCase(Locale.ROOT);
+    }
+}
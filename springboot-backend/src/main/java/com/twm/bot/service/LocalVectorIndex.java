@@ -0,0 +1,440 @@
+package com.twm.bot.service;
+
+import com.twm.bot.data.dto.QuantizationReport;
+import com.twm.bot.model.KnowledgeChunk;
+import com.twm.bot.util.Int8Vectors;
+import com.twm.bot.util.TopK;
+import com.twm.bot.util.VectorMath;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.milvus.v2.service.vector.response.QueryResp;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * In-process copy of the knowledge base collection served by {@link MilvusService}, so retrieval doesn't pay a
+ * network hop to Milvus.
+ * <p>
+ * Vectors are searched with a flat scan, which for a knowledge base of a few thousand rows is well under a
+ * millisecond and needs no index tuning. With {@code quantization=NONE} they live in one contiguous {@code float[]}
+ * (row-major, {@code dimension} floats per row) and the scan is exact. With {@code INT8} the heap only holds
+ * {@link Int8Vectors} (a quarter of the size); the scan ranks {@code topK * oversample} candidates on the quantized
+ * vectors and, when {@code rescore} is on, re-scores them exactly against float32 originals kept off-heap.
+ * <p>
+ * Memory: INT8 with {@code rescore=false} takes about 25% of NONE in total. With {@code rescore=true} the float32
+ * originals are still kept, just off-heap, so the total is about 125% of NONE; what it buys is a heap (and GC load)
+ * a quarter of the size, not less memory. {@code knowledge.local-index.vector.bytes} and
+ * {@code knowledge.local-index.vector.offheap.bytes} report both parts.
+ * <p>
+ * Milvus stays the source of truth: the copy is reloaded in the background whenever the knowledge base version moves
+ * (ingestion through this application) or it is older than {@code max-age} (writes to Milvus from anywhere else),
+ * swapped in atomically, and callers fall back to Milvus while it isn't loaded.
+ */
+@Log4j2
+@Service
+public class LocalVectorIndex {
+
+    enum Metric { COSINE, IP, L2 }
+
+    enum Quantization { NONE, INT8 }
+
+    /**
+     * Exactly one of {@code vectors} (NONE) and {@code quantized} (INT8) is set; {@code originals} holds the float32
+     * rows off-heap for re-scoring when quantized and {@code rescore} is on. {@code domainRows} lists the rows of each
+     * product line (ascending), or is null when the collection has no product line field.
+     */
+    private record Snapshot(long version, int dimension, float[] vectors, Int8Vectors quantized, FloatBuffer originals,
+                            String[] ids, String[] contents, String[] answers, Map<String, int[]> domainRows) {
+        int size() {
+            return ids.length;
+        }
+
+        long vectorBytes() {
+            return vectors != null ? 4L * vectors.length : quantized.memoryBytes();
+        }
+
+        long offHeapBytes() {
+            return originals != null ? 4L * originals.capacity() : 0;
+        }
+    }
+
+    private final MilvusService milvusService;
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final Timer searchTimer;
+    private final boolean enabled;
+    private final Metric metric;
+    private final Quantization quantization;
+    private final boolean rescore;
+    private final int oversample;
+    private final int pageSize;
+    private final long maxAgeNanos;
+    private final AtomicBoolean loading = new AtomicBoolean();
+    private volatile Snapshot snapshot;
+    // System.nanoTime() when the current snapshot was read from Milvus
+    private volatile long loadedAtNanos;
+
+    public LocalVectorIndex(MilvusService milvusService,
+                            KnowledgeBaseVersionService knowledgeBaseVersionService,
+                            MeterRegistry meterRegistry,
+                            @Value("${knowledge-base.local-index.enabled:false}") boolean enabled,
+                            @Value("${knowledge-base.local-index.metric:COSINE}") Metric metric,
+                            @Value("${knowledge-base.local-index.quantization:NONE}") Quantization quantization,
+                            @Value("${knowledge-base.local-index.rescore:true}") boolean rescore,
+                            @Value("${knowledge-base.local-index.oversample:4}") int oversample,
+                            @Value("${knowledge-base.local-index.page-size:1000}") int pageSize,
+                            @Value("${knowledge-base.local-index.max-age:PT10M}") Duration maxAge) {
+        this.milvusService = milvusService;
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.enabled = enabled;
+        this.metric = metric;
+        this.quantization = quantization;
+        this.rescore = rescore;
+        this.oversample = Math.max(1, oversample);
+        this.pageSize = pageSize;
+        this.maxAgeNanos = maxAge.toNanos();
+        this.searchTimer = Timer.builder("knowledge.local-index.search")
+                .description("Latency of searches served from the in-process knowledge base index")
+                .register(meterRegistry);
+        meterRegistry.gauge("knowledge.local-index.size", this, index -> index.size());
+        meterRegistry.gauge("knowledge.local-index.vector.bytes", this, index -> {
+            Snapshot current = index.snapshot;
+            return current != null ? current.vectorBytes() : 0;
+        });
+        meterRegistry.gauge("knowledge.local-index.vector.offheap.bytes", this, index -> {
+            Snapshot current = index.snapshot;
+            return current != null ? current.offHeapBytes() : 0;
+        });
+    }
+
+    public boolean isReady() {
+        return enabled && snapshot != null;
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current != null ? current.size() : 0;
+    }
+
+    /**
+     * Whether a higher search score means closer: true for COSINE/IP similarity, false for L2 distance. The metric is
+     * configured to match the Milvus collection, so this holds for Milvus search results too.
+     */
+    public boolean higherIsCloser() {
+        return metric != Metric.L2;
+    }
+
+    /**
+     * Top-k search. Scores follow Milvus: similarity for COSINE/IP (higher is closer), squared distance for L2
+     * (lower is closer).
+     */
+    public List<KnowledgeChunk> search(float[] queryVector, int topK) {
+        return search(queryVector, topK, List.of());
+    }
+
+    /**
+     * Same as {@link #search(float[], int)}, but only scans the rows of the given product lines (all rows when empty),
+     * so the cost follows the size of those product lines rather than of the whole knowledge base.
+     */
+    public List<KnowledgeChunk> search(float[] queryVector, int topK, Collection<String> domains) {
+        Snapshot current = snapshot;
+        if (current == null) {
+            throw new IllegalStateException("Local vector index is not loaded");
+        }
+        // An empty collection has no dimension to check against and nothing to find, the same answer Milvus gives
+        if (current.size() == 0) {
+            return List.of();
+        }
+        if (queryVector.length != current.dimension()) {
+            throw new IllegalArgumentException("Query has " + queryVector.length + " dimensions, index has " + current.dimension());
+        }
+
+        long start = System.nanoTime();
+        float[] query = metric == Metric.COSINE ? VectorMath.normalize(queryVector) : queryVector;
+        int[] rows = domainRows(current, domains);
+        TopK best = current.quantized() == null
+                ? exactSearch(current, query, topK, rows)
+                : quantizedSearch(current, query, topK, rows, current.originals() != null);
+
+        List<KnowledgeChunk> chunks = new ArrayList<>(best.size());
+        for (int rank = 0; rank < best.size(); rank++) {
+            int row = best.row(rank);
+            // Higher is better inside the index; L2 distance is negated there
+            float score = metric == Metric.L2 ? -best.score(rank) : best.score(rank);
+            chunks.add(new KnowledgeChunk(current.ids()[row], current.contents()[row], current.answers()[row], score));
+        }
+        searchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return chunks;
+    }
+
+    // Rows to scan for the given product lines, or null for all rows
+    private static int[] domainRows(Snapshot current, Collection<String> domains) {
+        if (domains.isEmpty()) {
+            return null;
+        }
+        if (current.domainRows() == null) {
+            throw new IllegalStateException("Local vector index was loaded without product lines");
+        }
+        return domains.stream()
+                .map(domain -> current.domainRows().getOrDefault(domain, new int[0]))
+                .flatMapToInt(Arrays::stream)
+                .sorted()
+                .toArray();
+    }
+
+    private TopK exactSearch(Snapshot current, float[] query, int topK, int[] rows) {
+        int dimension = current.dimension();
+        float[] vectors = current.vectors();
+        int count = rows != null ? rows.length : current.size();
+        TopK best = new TopK(Math.min(topK, count));
+        for (int i = 0; i < count; i++) {
+            int row = rows != null ? rows[i] : i;
+            best.offer(row, metric == Metric.L2
+                    ? -VectorMath.squaredDistance(query, vectors, row * dimension)
+                    : VectorMath.dot(query, vectors, row * dimension));
+        }
+        return best;
+    }
+
+    private TopK quantizedSearch(Snapshot current, float[] query, int topK, int[] rows, boolean rescoreCandidates) {
+        Int8Vectors quantized = current.quantized();
+        float querySquaredNorm = metric == Metric.L2 ? VectorMath.dot(query, query) : 0f;
+        int count = rows != null ? rows.length : current.size();
+        TopK candidates = new TopK(Math.min(rescoreCandidates ? topK * oversample : topK, count));
+        for (int i = 0; i < count; i++) {
+            int row = rows != null ? rows[i] : i;
+            candidates.offer(row, metric == Metric.L2
+                    ? -quantized.squaredDistance(query, querySquaredNorm, row)
+                    : quantized.dot(query, row));
+        }
+        if (!rescoreCandidates) {
+            return candidates;
+        }
+
+        FloatBuffer originals = current.originals();
+        int dimension = current.dimension();
+        TopK best = new TopK(Math.min(topK, candidates.size()));
+        for (int rank = 0; rank < candidates.size(); rank++) {
+            int row = candidates.row(rank);
+            best.offer(row, metric == Metric.L2
+                    ? -VectorMath.squaredDistance(query, originals, row * dimension)
+                    : VectorMath.dot(query, originals, row * dimension));
+        }
+        return best;
+    }
+
+    /**
+     * Compares int8 search (with and without re-scoring) against exact float32 search on the loaded collection.
+     * Queries are loaded rows with Gaussian noise added, so they are near, but not identical to, stored vectors.
+     */
+    public QuantizationReport quantizationReport(int sampleQueries, int topK) {
+        Snapshot current = snapshot;
+        if (current == null || current.size() == 0) {
+            throw new IllegalStateException("Local vector index is not loaded");
+        }
+        if (current.vectors() == null && current.originals() == null) {
+            throw new IllegalStateException("Float32 vectors are not kept (quantization=INT8 with rescore=false); nothing to compare against");
+        }
+
+        int dimension = current.dimension();
+        float[] vectors = current.vectors();
+        if (vectors == null) {
+            vectors = new float[current.size() * dimension];
+            current.originals().get(0, vectors);
+        }
+        Snapshot exact = new Snapshot(current.version(), dimension, vectors, null, null, current.ids(), current.contents(), current.answers(), null);
+        Int8Vectors quantized = current.quantized() != null ? current.quantized() : Int8Vectors.quantize(vectors, dimension);
+        Snapshot int8 = new Snapshot(current.version(), dimension, null, quantized, floatBuffer(vectors), current.ids(), current.contents(), current.answers(), null);
+
+        Random random = new Random(42);
+        double int8Recall = 0;
+        double rescoredRecall = 0;
+        long exactNanos = 0;
+        long int8Nanos = 0;
+        long rescoredNanos = 0;
+        for (int i = 0; i < sampleQueries; i++) {
+            float[] query = new float[dimension];
+            int row = random.nextInt(current.size());
+            for (int d = 0; d < dimension; d++) {
+                query[d] = vectors[row * dimension + d] + (float) random.nextGaussian() * 0.02f;
+            }
+            if (metric == Metric.COSINE) {
+                query = VectorMath.normalize(query);
+            }
+
+            long start = System.nanoTime();
+            Set<Integer> truth = rows(exactSearch(exact, query, topK, null));
+            exactNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int8Recall += recall(truth, rows(quantizedSearch(int8, query, topK, null, false)));
+            int8Nanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            rescoredRecall += recall(truth, rows(quantizedSearch(int8, query, topK, null, true)));
+            rescoredNanos += System.nanoTime() - start;
+        }
+
+        QuantizationReport report = new QuantizationReport();
+        report.setRows(current.size());
+        report.setDimension(dimension);
+        report.setQueries(sampleQueries);
+        report.setTopK(topK);
+        report.setOversample(oversample);
+        report.setInt8Recall(int8Recall / sampleQueries);
+        report.setInt8RescoredRecall(rescoredRecall / sampleQueries);
+        report.setFloat32Bytes(4L * vectors.length);
+        report.setInt8Bytes(quantized.memoryBytes());
+        // What INT8 costs as configured: the originals are only kept when re-scoring
+        report.setOffHeapBytes(rescore ? 4L * vectors.length : 0);
+        report.setInt8TotalBytes(report.getInt8Bytes() + report.getOffHeapBytes());
+        report.setFloat32MeanMicros(exactNanos / 1000.0 / sampleQueries);
+        report.setInt8MeanMicros(int8Nanos / 1000.0 / sampleQueries);
+        report.setInt8RescoredMeanMicros(rescoredNanos / 1000.0 / sampleQueries);
+        return report;
+    }
+
+    private static Set<Integer> rows(TopK topK) {
+        Set<Integer> rows = new HashSet<>();
+        for (int rank = 0; rank < topK.size(); rank++) {
+            rows.add(topK.row(rank));
+        }
+        return rows;
+    }
+
+    private static double recall(Set<Integer> truth, Set<Integer> found) {
+        if (truth.isEmpty()) {
+            return 1.0;
+        }
+        return (double) found.stream().filter(truth::contains).count() / truth.size();
+    }
+
+    @Scheduled(fixedDelayString = "${knowledge-base.local-index.refresh-interval:PT30S}")
+    public void refresh() {
+        if (!enabled) {
+            return;
+        }
+        Snapshot current = snapshot;
+        long version = knowledgeBaseVersionService.current();
+        if (current != null && current.version() == version && System.nanoTime() - loadedAtNanos < maxAgeNanos) {
+            return;
+        }
+        if (!loading.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Snapshot loaded = load(version);
+            if (loaded != null) {
+                snapshot = loaded;
+                loadedAtNanos = start;
+                log.info("Local vector index loaded {} rows ({} dimensions, {}, {} KB vectors on heap, {} KB off heap) for knowledge base version {}",
+                        loaded.size(), loaded.dimension(), quantization, loaded.vectorBytes() / 1024, loaded.offHeapBytes() / 1024, version);
+            }
+        } catch (Exception e) {
+            log.warn("Failed to load local vector index, searches keep using {}: {}",
+                    current != null ? "the previous copy" : "Milvus", e.getMessage());
+        } finally {
+            loading.set(false);
+        }
+    }
+
+    private Snapshot load(long version) {
+        List<String> ids = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        List<String> answers = new ArrayList<>();
+        List<float[]> rows = new ArrayList<>();
+        String primaryKeyField = milvusService.getPrimaryKeyField();
+        String domainField = milvusService.getDomainField();
+        List<String> fields = new ArrayList<>(List.of(primaryKeyField, "content", "answer", "embedding"));
+        Map<String, List<Integer>> rowsByDomain = new HashMap<>();
+        if (domainField != null) {
+            fields.add(domainField);
+        }
+
+        long offset = 0;
+        while (true) {
+            long limit = Math.min(pageSize, MilvusService.MAX_QUERY_WINDOW - offset);
+            if (limit <= 0) {
+                // A partial copy would silently hide rows, so keep using Milvus instead
+                log.error("Knowledge base has more than {} rows, too large to mirror locally", MilvusService.MAX_QUERY_WINDOW);
+                return null;
+            }
+            List<QueryResp.QueryResult> page = milvusService.queryKnowledgeBase(fields, offset, limit);
+            for (QueryResp.QueryResult result : page) {
+                Map<String, Object> entity = result.getEntity();
+                ids.add(String.valueOf(entity.get(primaryKeyField)));
+                contents.add(String.valueOf(entity.get("content")));
+                answers.add(entity.get("answer") != null ? entity.get("answer").toString() : "");
+                if (domainField != null) {
+                    rowsByDomain.computeIfAbsent(String.valueOf(entity.get(domainField)), key -> new ArrayList<>()).add(rows.size());
+                }
+                rows.add(toFloatArray((List<?>) entity.get("embedding")));
+            }
+            if (page.size() < limit) {
+                break;
+            }
+            offset += page.size();
+        }
+
+        int dimension = rows.isEmpty() ? 0 : rows.get(0).length;
+        float[] vectors = new float[rows.size() * dimension];
+        for (int row = 0; row < rows.size(); row++) {
+            float[] vector = rows.get(row);
+            if (vector.length != dimension) {
+                throw new IllegalStateException("Row " + ids.get(row) + " has " + vector.length + " dimensions, expected " + dimension);
+            }
+            System.arraycopy(metric == Metric.COSINE ? VectorMath.normalize(vector) : vector, 0, vectors, row * dimension, dimension);
+        }
+
+        String[] idArray = ids.toArray(String[]::new);
+        String[] contentArray = contents.toArray(String[]::new);
+        String[] answerArray = answers.toArray(String[]::new);
+        Map<String, int[]> domainRows = null;
+        if (domainField != null) {
+            domainRows = new HashMap<>();
+            for (Map.Entry<String, List<Integer>> entry : rowsByDomain.entrySet()) {
+                domainRows.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+            }
+        }
+        if (quantization == Quantization.INT8) {
+            return new Snapshot(version, dimension, null, Int8Vectors.quantize(vectors, dimension),
+                    rescore ? floatBuffer(vectors) : null, idArray, contentArray, answerArray, domainRows);
+        }
+        return new Snapshot(version, dimension, vectors, null, null, idArray, contentArray, answerArray, domainRows);
+    }
+
+    // Off-heap copy, so re-scoring originals don't count against the heap or slow down GC
+    private static FloatBuffer floatBuffer(float[] vectors) {
+        FloatBuffer buffer = ByteBuffer.allocateDirect(4 * vectors.length)
+                .order(ByteOrder.nativeOrder())
+                .asFloatBuffer();
+        buffer.put(vectors).flip();
+        return buffer;
+    }
+
+    static float[] toFloatArray(List<?> values) {
+        float[] vector = new float[values.size()];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = ((Number) values.get(i)).floatValue();
+        }
+        return vector;
+    }
+}
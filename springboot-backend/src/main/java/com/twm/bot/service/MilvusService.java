@@ -1,10 +1,28 @@
 package com.twm.bot.service;
 
+import com.google.gson.JsonObject;
+import com.twm.bot.model.MilvusSearchOptions;
+import com.twm.bot.util.Deadline;
+import com.twm.bot.util.MicroBatcher;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.milvus.exception.MilvusException;
 import io.milvus.v2.client.ConnectConfig;
 import io.milvus.v2.client.MilvusClientV2;
+import io.milvus.v2.common.ConsistencyLevel;
+import io.milvus.v2.common.DataType;
+import io.milvus.v2.common.IndexParam;
+import io.milvus.v2.service.collection.request.AddFieldReq;
+import io.milvus.v2.service.collection.request.CreateCollectionReq;
+import io.milvus.v2.service.collection.request.HasCollectionReq;
 import io.milvus.v2.service.collection.request.LoadCollectionReq;
+import io.milvus.v2.service.vector.request.DeleteReq;
+import io.milvus.v2.service.vector.request.QueryReq;
 import io.milvus.v2.service.vector.request.SearchReq;
+import io.milvus.v2.service.vector.request.UpsertReq;
+import io.milvus.v2.service.vector.request.data.BaseVector;
+import io.milvus.v2.service.vector.response.QueryResp;
 import io.milvus.v2.service.vector.response.SearchResp;
 import io.milvus.v2.service.vector.request.data.FloatVec;
 import jakarta.annotation.PostConstruct;
@@ -13,20 +31,102 @@ import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.Arrays;
-import java.util.Collections;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 @Log4j2
 @Service
 public class MilvusService {
 
     private MilvusClientV2 client;
-    private final String COLLECTION = "knowledge_base_dynamic";
+    // Collection searched and written by default; see collectionName(int)
+    private final String collection;
+    private static final String VECTOR_FIELD = "embedding";
+    // Milvus rejects queries whose offset + limit exceeds this (maxQueryResultWindow)
+    public static final long MAX_QUERY_WINDOW = 16_384;
+    private static final List<String> OUTPUT_FIELDS = List.of("content", "answer");
 
     @Value("${milvus.host}")
     private String host;
 
+    @Value("${milvus.primary-key-field:id}")
+    private String primaryKeyField;
+
+    // Scalar field holding the product line of a chunk. It is the partition key of collections created here, so a
+    // filter on it only searches the matching partitions.
+    @Value("${knowledge-base.domain.enabled:false}")
+    private boolean domainEnabled;
+
+    @Value("${knowledge-base.domain.field:product_line}")
+    private String domainField;
+
+    @Value("${milvus.search.top-k:5}")
+    private int defaultTopK;
+
+    // SpEL map literal, e.g. {nprobe:16} for IVF or {ef:64} for HNSW
+    @Value("#{${milvus.search.params:{:}}}")
+    private Map<String, Object> defaultSearchParams;
+
+    @Value("${milvus.search.consistency-level:BOUNDED}")
+    private ConsistencyLevel defaultConsistencyLevel;
+
+    @Value("${milvus.search.timeout:3s}")
+    private Duration searchTimeout;
+
+    @Value("${milvus.search.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Value("${milvus.search.batch.max-size:16}")
+    private int batchMaxSize;
+
+    @Value("${milvus.search.batch.max-linger:3ms}")
+    private Duration batchMaxLinger;
+
+    @Value("${milvus.search.batch.concurrency:2}")
+    private int batchConcurrency;
+
+    // Queries are only coalesced with others that use the same options; this bounds how many distinct option sets
+    // get their own batcher, the rest are sent on their own
+    @Value("${milvus.search.batch.max-batchers:16}")
+    private int maxBatchers;
+
+    @Value("${milvus.search.concurrency:8}")
+    private int searchConcurrency;
+
+    private final MeterRegistry meterRegistry;
+    private final Timer callTimer;
+    private final DistributionSummary batchSize;
+    private final Map<MilvusSearchOptions, MicroBatcher<float[], List<SearchResp.SearchResult>>> batchers = new ConcurrentHashMap<>();
+    private ExecutorService searchExecutor;
+    private final String baseCollection;
+
+    public MilvusService(MeterRegistry meterRegistry,
+                         @Value("${milvus.collection:knowledge_base_dynamic}") String baseCollection,
+                         @Value("${knowledge-base.embedding.dimensions:0}") int embeddingDimensions) {
+        this.meterRegistry = meterRegistry;
+        this.baseCollection = baseCollection;
+        this.collection = collectionName(embeddingDimensions);
+        this.callTimer = Timer.builder("milvus.search.call")
+                .description("Time a caller waits for its search results, including time spent waiting for a batch")
+                .tag("collection", collection)
+                .register(meterRegistry);
+        this.batchSize = DistributionSummary.builder("milvus.search.batch.size")
+                .description("Query vectors sent per Milvus search request")
+                .tag("collection", collection)
+                .register(meterRegistry);
+    }
+
     @PostConstruct
     public void init() {
         ConnectConfig config = ConnectConfig.builder()
@@ -35,28 +135,255 @@ public class MilvusService {
         client = new MilvusClientV2(config);
         try {
             LoadCollectionReq loadReq = LoadCollectionReq.builder()
-                    .collectionName(COLLECTION)
+                    .collectionName(collection)
                     .build();
             client.loadCollection(loadReq);
         } catch (MilvusException e) {
             log.error("Failed to load Milvus collection: " + e.getMessage());
         }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        searchExecutor = Executors.newFixedThreadPool(Math.max(1, searchConcurrency), runnable -> {
+            Thread thread = new Thread(runnable, "milvus-search-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @PreDestroy
     public void close() {
+        batchers.values().forEach(MicroBatcher::close);
+        if (searchExecutor != null) {
+            searchExecutor.shutdownNow();
+        }
         client.close();
     }
 
+    public String getCollection() {
+        return collection;
+    }
+
+    /**
+     * Collection holding embeddings of the given size: the base collection for full-size (0) vectors, and a parallel
+     * {@code <base>_<dimensions>} collection for reduced-dimension ones.
+     */
+    public String collectionName(int dimensions) {
+        return dimensions > 0 ? baseCollection + "_" + dimensions : baseCollection;
+    }
+
+    public String getPrimaryKeyField() {
+        return primaryKeyField;
+    }
+
+    /**
+     * @return the product line field, or null when the collections don't have one (knowledge-base.domain.enabled)
+     */
+    public String getDomainField() {
+        return domainEnabled ? domainField : null;
+    }
+
+    /**
+     * Search options restricted to chunks of the given product lines, e.g. {@code product_line in ["broadband", "general"]}.
+     */
+    public MilvusSearchOptions domainOptions(Collection<String> domains) {
+        if (!domainEnabled) {
+            throw new IllegalStateException("knowledge-base.domain.enabled is off, the collection has no " + domainField + " field");
+        }
+        String values = domains.stream()
+                .map(domain -> "\"" + domain.replace("\\", "\\\\").replace("\"", "\\\"") + "\"")
+                .collect(Collectors.joining(", "));
+        return defaultOptions().toBuilder()
+                .filter(domainField + " in [" + values + "]")
+                .build();
+    }
+
+    /**
+     * @return the configured search options; use {@code toBuilder()} to override single values per call
+     */
+    public MilvusSearchOptions defaultOptions() {
+        return MilvusSearchOptions.builder()
+                .topK(defaultTopK)
+                .searchParams(defaultSearchParams)
+                .consistencyLevel(defaultConsistencyLevel)
+                .partitionNames(List.of())
+                .build();
+    }
+
     public List<List<SearchResp.SearchResult>> searchInMilvus(float[] queryVector) {
-        SearchResp searchR = client.search(SearchReq.builder()
-                .collectionName(COLLECTION)
-                .annsField("embedding")
-                .data(Collections.singletonList(new FloatVec(queryVector)))
-                .topK(5)
-                .outputFields(Arrays.asList("content", "answer"))
+        return searchInMilvus(queryVector, defaultOptions());
+    }
+
+    public List<List<SearchResp.SearchResult>> searchInMilvus(float[] queryVector, MilvusSearchOptions options) {
+        return List.of(await(searchAsync(queryVector, options)));
+    }
+
+    public CompletableFuture<List<SearchResp.SearchResult>> searchAsync(float[] queryVector) {
+        return searchAsync(queryVector, defaultOptions());
+    }
+
+    /**
+     * Searches for the nearest chunks of one query vector. Concurrent calls with the same options are coalesced into
+     * a single multi-vector request. The future fails with a TimeoutException after milvus.search.timeout, or earlier
+     * when the chat turn deadline of the caller runs out.
+     */
+    public CompletableFuture<List<SearchResp.SearchResult>> searchAsync(float[] queryVector, MilvusSearchOptions options) {
+        long start = System.nanoTime();
+        MicroBatcher<float[], List<SearchResp.SearchResult>> batcher = batcherFor(options);
+        CompletableFuture<List<SearchResp.SearchResult>> future = batcher != null
+                ? batcher.submit(queryVector)
+                : CompletableFuture.supplyAsync(() -> searchBatch(List.of(queryVector), options).get(0), searchExecutor);
+        return future
+                .orTimeout(Deadline.cap(searchTimeout).toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((results, error) -> callTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Searches several query vectors in one request. Returns one result list per vector, in input order.
+     */
+    public List<List<SearchResp.SearchResult>> searchBatch(List<float[]> queryVectors, MilvusSearchOptions options) {
+        List<BaseVector> data = queryVectors.stream().<BaseVector>map(FloatVec::new).toList();
+        SearchReq searchReq = SearchReq.builder()
+                .collectionName(collection)
+                .partitionNames(options.getPartitionNames() != null ? options.getPartitionNames() : List.of())
+                .annsField(VECTOR_FIELD)
+                .data(data)
+                .topK(options.getTopK())
+                .filter(options.getFilter())
+                .searchParams(options.getSearchParams() != null ? options.getSearchParams() : Map.of())
+                .consistencyLevel(options.getConsistencyLevel() != null ? options.getConsistencyLevel() : defaultConsistencyLevel)
+                .outputFields(OUTPUT_FIELDS)
+                .build();
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "error";
+        try {
+            List<List<SearchResp.SearchResult>> searchResults = client.search(searchReq).getSearchResults();
+            outcome = "success";
+            return searchResults;
+        } finally {
+            batchSize.record(queryVectors.size());
+            sample.stop(Timer.builder("milvus.search")
+                    .description("Latency of Milvus search requests")
+                    .tag("collection", collection)
+                    .tag("outcome", outcome)
+                    .register(meterRegistry));
+        }
+    }
+
+    /**
+     * Reads one page of knowledge base rows (no vector search), e.g. to mirror the collection locally.
+     */
+    public List<QueryResp.QueryResult> queryKnowledgeBase(List<String> outputFields, long offset, long limit) {
+        return queryKnowledgeBase(collection, outputFields, offset, limit);
+    }
+
+    public List<QueryResp.QueryResult> queryKnowledgeBase(String collectionName, List<String> outputFields, long offset, long limit) {
+        QueryReq queryReq = QueryReq.builder()
+                .collectionName(collectionName)
+                .filter("")
+                .outputFields(outputFields)
+                .offset(offset)
+                .limit(limit)
+                .build();
+        return client.query(queryReq).getQueryResults();
+    }
+
+    /**
+     * Inserts or replaces knowledge base rows by primary key. Each row holds the primary key, content, answer and
+     * embedding fields.
+     */
+    public void upsertKnowledgeBase(List<JsonObject> rows) {
+        upsertKnowledgeBase(collection, rows);
+    }
+
+    public void upsertKnowledgeBase(String collectionName, List<JsonObject> rows) {
+        client.upsert(UpsertReq.builder()
+                .collectionName(collectionName)
+                .data(rows)
+                .build());
+    }
+
+    public void deleteKnowledgeBase(List<Long> ids) {
+        client.delete(DeleteReq.builder()
+                .collectionName(collection)
+                .ids(new ArrayList<>(ids))
                 .build());
-        List<List<SearchResp.SearchResult>> searchResults = searchR.getSearchResults();
-        return searchResults;
     }
-}
\ No newline at end of file
+
+    public boolean hasCollection(String collectionName) {
+        return client.hasCollection(HasCollectionReq.builder().collectionName(collectionName).build());
+    }
+
+    /**
+     * Creates (and loads) a knowledge base collection with the same fields as the base one and a
+     * {@code dimensions}-long embedding field, unless it already exists.
+     */
+    public void ensureCollection(String collectionName, int dimensions) {
+        if (hasCollection(collectionName)) {
+            return;
+        }
+        if (dimensions <= 0) {
+            // The native size depends on the model, so the full-size collection has to exist already
+            throw new IllegalStateException("Collection " + collectionName + " does not exist");
+        }
+        CreateCollectionReq.CollectionSchema schema = client.createSchema();
+        schema.addField(AddFieldReq.builder()
+                .fieldName(primaryKeyField)
+                .dataType(DataType.Int64)
+                .isPrimaryKey(true)
+                .autoID(false)
+                .build());
+        schema.addField(AddFieldReq.builder().fieldName("content").dataType(DataType.VarChar).maxLength(65535).build());
+        schema.addField(AddFieldReq.builder().fieldName("answer").dataType(DataType.VarChar).maxLength(65535).build());
+        schema.addField(AddFieldReq.builder().fieldName(VECTOR_FIELD).dataType(DataType.FloatVector).dimension(dimensions).build());
+        if (domainEnabled) {
+            schema.addField(AddFieldReq.builder()
+                    .fieldName(domainField)
+                    .dataType(DataType.VarChar)
+                    .maxLength(64)
+                    .isPartitionKey(true)
+                    .build());
+        }
+
+        IndexParam index = IndexParam.builder()
+                .fieldName(VECTOR_FIELD)
+                .indexType(IndexParam.IndexType.AUTOINDEX)
+                .metricType(IndexParam.MetricType.COSINE)
+                .build();
+        // With index params the collection is indexed and loaded on creation
+        client.createCollection(CreateCollectionReq.builder()
+                .collectionName(collectionName)
+                .collectionSchema(schema)
+                .indexParams(List.of(index))
+                .build());
+        log.info("Created Milvus collection {} with {}-dimensional embeddings", collectionName, dimensions);
+    }
+
+    private MicroBatcher<float[], List<SearchResp.SearchResult>> batcherFor(MilvusSearchOptions options) {
+        if (!batchEnabled) {
+            return null;
+        }
+        MicroBatcher<float[], List<SearchResp.SearchResult>> batcher = batchers.get(options);
+        if (batcher != null || batchers.size() >= maxBatchers) {
+            return batcher;
+        }
+        return batchers.computeIfAbsent(options, key -> new MicroBatcher<>(
+                "milvus-search-batch-" + batchers.size(), vectors -> searchBatch(vectors, key),
+                batchMaxSize, batchMaxLinger, batchConcurrency));
+    }
+
+    // Blocks interruptibly, so a cancelled pipeline stage stops waiting right away
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Milvus search", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Milvus search failed", e.getCause());
+        }
+    }
+}
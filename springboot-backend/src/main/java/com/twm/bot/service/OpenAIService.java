@@ -1,122 +1,381 @@
 package com.twm.bot.service;
 
+import com.twm.bot.exception.ai.DeadlineExceededException;
+import com.twm.bot.exception.ai.OpenAIRateLimitException;
+import com.twm.bot.util.Deadline;
+import com.twm.bot.util.MicroBatcher;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.log4j.Log4j2;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
+import org.apache.hc.client5.http.config.RequestConfig;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.HttpClientResponseHandler;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 @Log4j2
 @Service
 public class OpenAIService {
 
+    private static final String EMBEDDINGS_URL = "https://api.openai.com/v1/embeddings";
+    private static final String CHAT_COMPLETIONS_URL = "https://api.openai.com/v1/chat/completions";
+    private static final String EMBEDDING_MODEL = "text-embedding-3-small";
+
     @Value("${openai.api.key}")
     private String apiKey;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
+    private final CloseableHttpClient httpClient;
+    private final EmbeddingCache embeddingCache;
+    // Requested embedding size; 0 keeps the model's native size
+    private final int embeddingDimensions;
+    // Coalesces concurrent single-text getEmbedding calls into one array-input request; null when disabled
+    private final MicroBatcher<String, float[]> embeddingBatcher;
+    private final DistributionSummary embeddingBatchSize;
+    private final CircuitBreaker circuitBreaker;
+    // Bulk embedding jobs trip this one instead, so rate limiting them doesn't open the breaker of live chat
+    private final CircuitBreaker batchCircuitBreaker;
+    private final Duration responseTimeout;
+    private final boolean hedgeEnabled;
+    private final Duration hedgeDelay;
+    private final Counter hedgedRequests;
+    private final Counter skippedHedges;
+    // Runs hedged (idempotent) requests so the caller can race a backup against a slow primary. Bounded and
+    // without a queue: when OpenAI is slow every thread is busy, and then requests run without a backup
+    // instead of piling up more threads.
+    private final ThreadPoolExecutor hedgeExecutor;
+
+    public OpenAIService(@Qualifier("openAIHttpClient") CloseableHttpClient httpClient,
+                         EmbeddingCache embeddingCache,
+                         MeterRegistry meterRegistry,
+                         @Qualifier("openAICircuitBreaker") CircuitBreaker openAICircuitBreaker,
+                         @Qualifier("openAIBatchCircuitBreaker") CircuitBreaker openAIBatchCircuitBreaker,
+                         @Value("${openai.embedding.batch.enabled:true}") boolean batchEnabled,
+                         @Value("${openai.embedding.batch.max-size:64}") int batchMaxSize,
+                         @Value("${openai.embedding.batch.max-linger:5ms}") Duration batchMaxLinger,
+                         @Value("${openai.embedding.batch.concurrency:4}") int batchConcurrency,
+                         @Value("${openai.http.response-timeout:60s}") Duration responseTimeout,
+                         @Value("${openai.hedge.enabled:true}") boolean hedgeEnabled,
+                         @Value("${openai.hedge.delay:1500ms}") Duration hedgeDelay,
+                         @Value("${openai.hedge.max-threads:32}") int hedgeMaxThreads,
+                         @Value("${knowledge-base.embedding.dimensions:0}") int embeddingDimensions) {
+        this.httpClient = httpClient;
+        this.embeddingCache = embeddingCache;
+        this.embeddingDimensions = embeddingDimensions;
+        this.embeddingBatchSize = DistributionSummary.builder("openai.embedding.batch.size")
+                .description("Inputs sent per /v1/embeddings request")
+                .register(meterRegistry);
+        this.embeddingBatcher = batchEnabled
+                ? new MicroBatcher<>("openai-embedding", this::getEmbeddingsDistinct, batchMaxSize, batchMaxLinger, batchConcurrency)
+                : null;
+        this.circuitBreaker = openAICircuitBreaker;
+        this.batchCircuitBreaker = openAIBatchCircuitBreaker;
+        this.responseTimeout = responseTimeout;
+        this.hedgeEnabled = hedgeEnabled;
+        this.hedgeDelay = hedgeDelay;
+        this.hedgedRequests = Counter.builder("openai.hedged.requests")
+                .description("Backup requests sent because the primary was slower than the hedge delay")
+                .register(meterRegistry);
+        this.skippedHedges = Counter.builder("openai.hedged.skipped")
+                .description("Requests run without a backup because every hedge thread was busy")
+                .register(meterRegistry);
+        AtomicInteger hedgeThreadCount = new AtomicInteger();
+        this.hedgeExecutor = new ThreadPoolExecutor(0, Math.max(2, hedgeMaxThreads), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "openai-hedge-" + hedgeThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void close() {
+        if (embeddingBatcher != null) {
+            embeddingBatcher.close();
+        }
+        hedgeExecutor.shutdownNow();
+    }
+
+    public int getEmbeddingDimensions() {
+        return embeddingDimensions;
+    }
 
     public float[] getEmbedding(String text) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost("https://api.openai.com/v1/embeddings");
-
-            Map<String, Object> requestBody = new HashMap<>();
-            requestBody.put("input", text);
-            requestBody.put("model", "text-embedding-3-small");
-
-            String json = objectMapper.writeValueAsString(requestBody);
-            request.setEntity(new StringEntity(json));
-            request.setHeader("Authorization", "Bearer " + apiKey);
-            request.setHeader("Content-Type", "application/json");
-
-            try (var response = httpClient.execute(request)) {
-                String responseBody = new String(response.getEntity().getContent().readAllBytes());
-                JsonNode embeddingNode = objectMapper.readTree(responseBody)
-                        .path("data").get(0)
-                        .path("embedding");
-
-                // Check if embeddingNode is null
-                if (embeddingNode == null) {
-                    throw new RuntimeException("No embedding found in the OpenAI response");
-                }
+        String model = cacheModel(embeddingDimensions);
+        float[] cached = embeddingCache.get(model, text);
+        if (cached != null) {
+            return cached;
+        }
 
-                return objectMapper.convertValue(embeddingNode, float[].class);
-            }
+        float[] embedding = embeddingBatcher != null
+                ? await(embeddingBatcher.submit(text), "Embedding")
+                : getEmbeddings(List.of(text)).get(0);
+        embeddingCache.put(model, text, embedding);
+        return embedding;
+    }
+
+    /**
+     * Embeds all texts in a single /v1/embeddings request with an array {@code input}.
+     *
+     * @return one vector per text, in input order
+     */
+    public List<float[]> getEmbeddings(List<String> texts) throws IOException {
+        return getEmbeddings(texts, embeddingDimensions);
+    }
+
+    /**
+     * Same as {@link #getEmbeddings(List)} but with an explicit output size, e.g. to re-embed the knowledge base
+     * into a collection of a different dimension than the one currently served.
+     *
+     * @param dimensions requested vector length, 0 for the model's native size
+     */
+    public List<float[]> getEmbeddings(List<String> texts, int dimensions) throws IOException {
+        return embed(texts, dimensions, false);
+    }
+
+    /**
+     * Same as {@link #getEmbeddings(List, int)} for bulk jobs such as ingestion: not hedged, and guarded by a circuit
+     * breaker of its own, so a job that runs into the rate limit only throttles itself.
+     */
+    public List<float[]> getBatchEmbeddings(List<String> texts, int dimensions) throws IOException {
+        return embed(texts, dimensions, true);
+    }
+
+    private List<float[]> embed(List<String> texts, int dimensions, boolean batch) throws IOException {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("input", texts);
+        requestBody.put("model", EMBEDDING_MODEL);
+        if (dimensions > 0) {
+            // text-embedding-3 models shorten (and re-normalize) the vector server-side
+            requestBody.put("dimensions", dimensions);
+        }
+
+        embeddingBatchSize.record(texts.size());
+        String json = objectMapper.writeValueAsString(requestBody);
+        String responseBody = batch
+                ? post(EMBEDDINGS_URL, json, batchCircuitBreaker)
+                : hedged(() -> post(EMBEDDINGS_URL, json));
+        JsonNode dataNode = objectMapper.readTree(responseBody).path("data");
+
+        // Check if the response has one embedding per input
+        if (!dataNode.isArray() || dataNode.size() != texts.size()) {
+            throw new RuntimeException("No embedding found in the OpenAI response");
+        }
+
+        float[][] embeddings = new float[texts.size()][];
+        for (JsonNode item : dataNode) {
+            embeddings[item.path("index").asInt()] = objectMapper.convertValue(item.path("embedding"), float[].class);
         }
+        return Arrays.asList(embeddings);
     }
 
-    public String getChatCompletion(String prompt, String context, String query) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost("https://api.openai.com/v1/chat/completions");
-            String json = objectMapper.writeValueAsString(Map.of(
-                    "model", "gpt-4o-mini",
-                    "messages", List.of(
-                            Map.of(
-                                    "role", "system",
-                                    "content", prompt
-                            ),
-                            Map.of(
-                                    "role", "assistant",
-                                    "content", context
-                            ),
-                            Map.of(
-                                    "role", "user",
-                                    "content", query
-                            )
-                    )
-            ));
-            request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON.withCharset("UTF-8")));
-            request.setHeader("Authorization", "Bearer " + apiKey);
-            request.setHeader("Content-Type", "application/json;charset=UTF-8");
-
-            try (var response = httpClient.execute(request)) {
-                String responseBody = new String(response.getEntity().getContent().readAllBytes(), StandardCharsets.UTF_8);
-                // Log the response body for debugging
-                log.info("OpenAI Response: " + responseBody);
-
-                return objectMapper.readTree(responseBody)
-                        .path("choices").get(0)
-                        .path("message").path("content").asText();
+    // Vectors of different sizes must never be served from the cache for one another
+    private static String cacheModel(int dimensions) {
+        return dimensions > 0 ? EMBEDDING_MODEL + "@" + dimensions : EMBEDDING_MODEL;
+    }
+
+    // Popular questions often arrive concurrently, so identical texts in a batch are only sent once
+    private List<float[]> getEmbeddingsDistinct(List<String> texts) throws IOException {
+        List<String> distinct = texts.stream().distinct().toList();
+        if (distinct.size() == texts.size()) {
+            return getEmbeddings(texts);
+        }
+
+        List<float[]> embeddings = getEmbeddings(distinct);
+        Map<String, float[]> byText = new HashMap<>();
+        for (int i = 0; i < distinct.size(); i++) {
+            byText.put(distinct.get(i), embeddings.get(i));
+        }
+        return texts.stream().map(byText::get).toList();
+    }
+
+    /**
+     * Waits for {@code future}, but no longer than the deadline of the current chat turn (if any).
+     */
+    private <T> T await(CompletableFuture<T> future, String what) throws IOException {
+        Deadline deadline = Deadline.current();
+        try {
+            return deadline == null ? future.get() : future.get(deadline.remaining().toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            throw new DeadlineExceededException(what + " did not finish before the chat turn deadline");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + what, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
             }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(what + " failed", e.getCause());
         }
     }
 
-    public String getChatCompletion(List<Map<String, String>> messages) throws IOException {
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost("https://api.openai.com/v1/chat/completions");
-            String json = objectMapper.writeValueAsString(Map.of(
-                    "model", "gpt-4o-mini",
-                    //"temperature",0.6,
-                    "seed",19980604,
-                    "messages", messages
-            ));
-            request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON.withCharset("UTF-8")));
-            request.setHeader("Authorization", "Bearer " + apiKey);
-            request.setHeader("Content-Type", "application/json;charset=UTF-8");
-
-            try (var response = httpClient.execute(request)) {
-                String responseBody = new String(response.getEntity().getContent().readAllBytes(), StandardCharsets.UTF_8);
-                // Log the response body for debugging
-                log.info("OpenAI Response: " + responseBody);
-
-                return objectMapper.readTree(responseBody)
-                        .path("choices").get(0)
-                        .path("message").path("content").asText();
+    /**
+     * Runs an idempotent request; if it hasn't answered within the hedge delay, an identical backup request is
+     * raced against it and whichever succeeds first wins. The loser is left to finish and return its connection.
+     */
+    private <T> T hedged(Callable<T> call) throws IOException {
+        if (!hedgeEnabled) {
+            return callDirectly(call);
+        }
+
+        CompletableFuture<T> primary;
+        try {
+            primary = supplyAsync(call);
+        } catch (RejectedExecutionException e) {
+            skippedHedges.increment();
+            return callDirectly(call);
+        }
+        try {
+            return primary.get(Deadline.cap(hedgeDelay).toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            if (Deadline.current() != null && Deadline.current().isExpired()) {
+                throw new DeadlineExceededException("OpenAI request did not finish before the chat turn deadline");
+            }
+            CompletableFuture<T> backup;
+            try {
+                backup = supplyAsync(call);
+            } catch (RejectedExecutionException rejected) {
+                skippedHedges.increment();
+                return await(primary, "OpenAI request");
             }
+            hedgedRequests.increment();
+            return await(firstSuccessful(primary, backup), "Hedged OpenAI request");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for OpenAI", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException("OpenAI request failed", e.getCause());
         }
     }
 
+    private static <T> T callDirectly(Callable<T> call) throws IOException {
+        try {
+            return call.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @throws RejectedExecutionException when every hedge thread is busy
+     */
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        hedgeExecutor.execute(Deadline.propagate(() -> {
+            try {
+                future.complete(call.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        }));
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> firstSuccessful(CompletableFuture<T> first, CompletableFuture<T> second) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        BiConsumer<T, Throwable> onDone = (value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (failures.incrementAndGet() == 2) {
+                result.completeExceptionally(error);
+            }
+        };
+        first.whenComplete(onDone);
+        second.whenComplete(onDone);
+        return result;
+    }
+
+    public String getChatCompletion(String prompt, String context, String query) throws IOException {
+        String json = objectMapper.writeValueAsString(Map.of(
+                "model", "gpt-4o-mini",
+                "messages", List.of(
+                        Map.of(
+                                "role", "system",
+                                "content", prompt
+                        ),
+                        Map.of(
+                                "role", "assistant",
+                                "content", context
+                        ),
+                        Map.of(
+                                "role", "user",
+                                "content", query
+                        )
+                )
+        ));
+
+        String responseBody = post(CHAT_COMPLETIONS_URL, json);
+        // Log the response body for debugging
+        log.info("OpenAI Response: " + responseBody);
+
+        return objectMapper.readTree(responseBody)
+                .path("choices").get(0)
+                .path("message").path("content").asText();
+    }
+
+    public String getChatCompletion(List<Map<String, String>> messages) throws IOException {
+        String json = objectMapper.writeValueAsString(Map.of(
+                "model", "gpt-4o-mini",
+                //"temperature",0.6,
+                "seed",19980604,
+                "messages", messages
+        ));
+
+        String responseBody = post(CHAT_COMPLETIONS_URL, json);
+        // Log the response body for debugging
+        log.info("OpenAI Response: " + responseBody);
+
+        return objectMapper.readTree(responseBody)
+                .path("choices").get(0)
+                .path("message").path("content").asText();
+    }
+
     public String classifyIntent(String userQuery) throws Exception {
         String prompt = userQuery;
 
@@ -129,22 +388,127 @@ public class OpenAIService {
                 )
         ));
 
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost("https://api.openai.com/v1/chat/completions");
-            request.setHeader("Authorization", "Bearer " + apiKey);
-            request.setHeader("Content-Type", "application/json;charset=UTF-8");
-            request.setEntity(new StringEntity(jsonRequest, ContentType.APPLICATION_JSON.withCharset("UTF-8")));
+        String responseBody = hedged(() -> post(CHAT_COMPLETIONS_URL, jsonRequest));
+
+        // Parse the response
+        JsonNode rootNode = objectMapper.readTree(responseBody);
+        String intentResponse = rootNode.path("choices").get(0).path("message").path("content").asText();
+
+        // Extract intent from the response
+        String intent = intentResponse.split("intent: ")[1].trim();
+        return intent;
+    }
+
+    /**
+     * Same request as {@link #getChatCompletion(List)} but with {@code stream: true}: every content delta of the
+     * server-sent event stream is handed to {@code onDelta} as soon as it arrives, and the assembled answer is returned.
+     */
+    public String streamChatCompletion(List<Map<String, String>> messages, Consumer<String> onDelta) throws IOException {
+        String json = objectMapper.writeValueAsString(Map.of(
+                "model", "gpt-4o-mini",
+                "seed",19980604,
+                "stream", true,
+                "messages", messages
+        ));
+
+        return execute(CHAT_COMPLETIONS_URL, json, response -> {
+            if (response.getCode() >= 300) {
+                throw new IOException("OpenAI request to " + CHAT_COMPLETIONS_URL + " failed with status " + response.getCode() + ": "
+                        + EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8));
+            }
 
-            var response = httpClient.execute(request);
-            String responseBody = new String(response.getEntity().getContent().readAllBytes(), StandardCharsets.UTF_8);
+            StringBuilder answer = new StringBuilder();
+            BufferedReader reader = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // SSE frames look like "data: {...}"; blank lines separate events
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                String data = line.substring(5).trim();
+                if ("[DONE]".equals(data)) {
+                    break;
+                }
+                String delta = objectMapper.readTree(data)
+                        .path("choices").path(0)
+                        .path("delta").path("content").asText("");
+                if (!delta.isEmpty()) {
+                    answer.append(delta);
+                    onDelta.accept(delta);
+                }
+            }
+            log.info("OpenAI streamed response: " + answer);
+            return answer.toString();
+        });
+    }
 
-            // Parse the response
-            JsonNode rootNode = objectMapper.readTree(responseBody);
-            String intentResponse = rootNode.path("choices").get(0).path("message").path("content").asText();
+    private String post(String url, String json) throws IOException {
+        return post(url, json, circuitBreaker);
+    }
 
-            // Extract intent from the response
-            String intent = intentResponse.split("intent: ")[1].trim();
-            return intent;
+    private String post(String url, String json, CircuitBreaker circuitBreaker) throws IOException {
+        return execute(url, json, circuitBreaker, response -> {
+            String responseBody = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (response.getCode() == 429) {
+                throw new OpenAIRateLimitException("OpenAI rate limit hit for " + url + ": " + responseBody);
+            }
+            if (response.getCode() >= 300) {
+                throw new IOException("OpenAI request to " + url + " failed with status " + response.getCode() + ": " + responseBody);
+            }
+            return responseBody;
+        });
+    }
+
+    // All OpenAI calls go through the shared pooled client; the response handler
+    // always consumes the entity so the connection goes back to the pool.
+    private <T> T execute(String url, String json, HttpClientResponseHandler<T> responseHandler) throws IOException {
+        return execute(url, json, circuitBreaker, responseHandler);
+    }
+
+    private <T> T execute(String url, String json, CircuitBreaker circuitBreaker,
+                          HttpClientResponseHandler<T> responseHandler) throws IOException {
+        HttpPost request = new HttpPost(url);
+        request.setHeader("Authorization", "Bearer " + apiKey);
+        request.setEntity(new StringEntity(json, ContentType.APPLICATION_JSON.withCharset(StandardCharsets.UTF_8)));
+
+        // Never wait longer than what is left of the chat turn
+        Deadline deadline = Deadline.current();
+        if (deadline != null) {
+            if (deadline.isExpired()) {
+                throw new DeadlineExceededException("Chat turn deadline passed before calling " + url);
+            }
+            Timeout timeout = Timeout.of(Deadline.cap(responseTimeout));
+            request.setConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(timeout)
+                    .setResponseTimeout(timeout)
+                    .build());
+        }
+
+        // Throws CallNotPermittedException while the breaker is open. Latency is recorded when the response
+        // headers arrive, so a long but healthy stream doesn't count as a slow call; 5xx and 429 count as errors.
+        circuitBreaker.acquirePermission();
+        long start = System.nanoTime();
+        AtomicBoolean recorded = new AtomicBoolean();
+        try {
+            return httpClient.execute(request, response -> {
+                long elapsed = System.nanoTime() - start;
+                if (response.getCode() >= 500 || response.getCode() == 429) {
+                    circuitBreaker.onError(elapsed, TimeUnit.NANOSECONDS, new IOException("OpenAI responded with status " + response.getCode()));
+                } else {
+                    circuitBreaker.onSuccess(elapsed, TimeUnit.NANOSECONDS);
+                }
+                recorded.set(true);
+                return responseHandler.handleResponse(response);
+            });
+        } catch (IOException | RuntimeException e) {
+            if (!recorded.get()) {
+                circuitBreaker.onError(System.nanoTime() - start, TimeUnit.NANOSECONDS, e);
+            }
+            // A read timeout, or any failure once the turn is out of time, means OpenAI didn't answer in time
+            if (e instanceof SocketTimeoutException || (deadline != null && deadline.isExpired())) {
+                throw new DeadlineExceededException("OpenAI request to " + url + " did not finish in time", e);
+            }
+            throw e;
         }
     }
 }
\ No newline at end of file
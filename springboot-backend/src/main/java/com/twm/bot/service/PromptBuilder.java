@@ -0,0 +1,148 @@
+package com.twm.bot.service;
+
+import com.twm.bot.model.KnowledgeChunk;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Assembles chat completion messages within a per-request token budget.
+ * <p>
+ * The system prompt and the final user message are always kept. When the prompt is over budget the oldest
+ * conversation turns are dropped first, then the lowest-ranked knowledge base chunks (chunks are expected
+ * best-first, as retrieval returns them).
+ */
+@Log4j2
+@Service
+public class PromptBuilder {
+
+    public record Prompt(List<Map<String, String>> messages, int tokens) {
+    }
+
+    private final TokenCounter tokenCounter;
+    private final MeterRegistry meterRegistry;
+    private final int maxTokens;
+
+    public PromptBuilder(TokenCounter tokenCounter,
+                         MeterRegistry meterRegistry,
+                         @Value("${openai.prompt.max-tokens:12000}") int maxTokens) {
+        this.tokenCounter = tokenCounter;
+        this.meterRegistry = meterRegistry;
+        this.maxTokens = maxTokens;
+    }
+
+    /**
+     * @param purpose tag for the prompt size metric, e.g. "answer" or "summary"
+     */
+    public Builder newPrompt(String purpose) {
+        return new Builder(purpose);
+    }
+
+    public class Builder {
+
+        private final String purpose;
+        private String systemPrompt;
+        private final List<Map<String, String>> history = new ArrayList<>();
+        private List<KnowledgeChunk> chunks;
+        private Function<List<KnowledgeChunk>, String> contextRenderer;
+        private String userMessage;
+
+        private Builder(String purpose) {
+            this.purpose = purpose;
+        }
+
+        public Builder system(String content) {
+            this.systemPrompt = content;
+            return this;
+        }
+
+        public Builder history(List<Map<String, String>> messages) {
+            this.history.addAll(messages);
+            return this;
+        }
+
+        public Builder context(List<KnowledgeChunk> chunks, Function<List<KnowledgeChunk>, String> renderer) {
+            this.chunks = chunks;
+            this.contextRenderer = renderer;
+            return this;
+        }
+
+        public Builder user(String content) {
+            this.userMessage = content;
+            return this;
+        }
+
+        public Prompt build() {
+            Map<String, String> system = Map.of("role", "system", "content", systemPrompt);
+            Map<String, String> user = Map.of("role", "user", "content", userMessage);
+            int fixedTokens = tokenCounter.countMessages(List.of(system, user));
+
+            Deque<Map<String, String>> keptHistory = new ArrayDeque<>(history);
+            int historyTokens = 0;
+            for (Map<String, String> message : keptHistory) {
+                historyTokens += tokenCounter.countMessage(message);
+            }
+
+            List<KnowledgeChunk> keptChunks = chunks != null ? new ArrayList<>(chunks) : null;
+            Map<String, String> context = renderContext(keptChunks);
+            int contextTokens = context != null ? tokenCounter.countMessage(context) : 0;
+
+            // Step 1: drop the oldest turns
+            int trimmedTurns = 0;
+            while (fixedTokens + historyTokens + contextTokens > maxTokens && !keptHistory.isEmpty()) {
+                historyTokens -= tokenCounter.countMessage(keptHistory.removeFirst());
+                trimmedTurns++;
+            }
+
+            // Step 2: drop the lowest-ranked context chunks
+            int trimmedChunks = 0;
+            while (fixedTokens + historyTokens + contextTokens > maxTokens && keptChunks != null && !keptChunks.isEmpty()) {
+                keptChunks.remove(keptChunks.size() - 1);
+                context = renderContext(keptChunks);
+                contextTokens = tokenCounter.countMessage(context);
+                trimmedChunks++;
+            }
+
+            List<Map<String, String>> messages = new ArrayList<>();
+            messages.add(system);
+            messages.addAll(keptHistory);
+            if (context != null) {
+                messages.add(context);
+            }
+            messages.add(user);
+
+            int tokens = fixedTokens + historyTokens + contextTokens;
+            if (tokens > maxTokens) {
+                log.warn("Prompt for {} is {} tokens, still over the budget of {}", purpose, tokens, maxTokens);
+            }
+            if (trimmedTurns > 0 || trimmedChunks > 0) {
+                log.info("Trimmed {} turns and {} context chunks from the {} prompt", trimmedTurns, trimmedChunks, purpose);
+                meterRegistry.counter("openai.prompt.trimmed", "purpose", purpose, "part", "history").increment(trimmedTurns);
+                meterRegistry.counter("openai.prompt.trimmed", "purpose", purpose, "part", "context").increment(trimmedChunks);
+            }
+            DistributionSummary.builder("openai.prompt.tokens")
+                    .description("Prompt tokens per chat completion request, counted locally")
+                    .tag("purpose", purpose)
+                    .publishPercentiles(0.5, 0.95)
+                    .register(meterRegistry)
+                    .record(tokens);
+            return new Prompt(messages, tokens);
+        }
+
+        private Map<String, String> renderContext(List<KnowledgeChunk> contextChunks) {
+            if (contextChunks == null) {
+                return null;
+            }
+            return Map.of("role", "assistant", "content", contextRenderer.apply(contextChunks));
+        }
+    }
+}
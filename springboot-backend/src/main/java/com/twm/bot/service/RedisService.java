@@ -47,6 +47,65 @@ public class RedisService {
                 .collect(Collectors.toList());
     }
 
+    // 取得第 fromIndex 則（含）之後的訊息
+    public List<ChatMessage> getChatSessionMessages(String chatSessionId, long fromIndex) {
+        List<Object> objects = redisTemplate.opsForList().range("chatSession:" + chatSessionId + ".chatMessages", fromIndex, -1);
+
+        if (objects == null) {
+            return Collections.emptyList();
+        }
+
+        return objects.stream()
+                .map(this::convertToChatMessage)
+                .collect(Collectors.toList());
+    }
+
+    public long getChatSessionMessageCount(String chatSessionId) {
+        Long size = redisTemplate.opsForList().size("chatSession:" + chatSessionId + ".chatMessages");
+        return size != null ? size : 0;
+    }
+
+    // 保存滾動摘要，以及摘要涵蓋的訊息數量（同一個 hash，確保兩者一致）
+    public void saveConversationSummary(String chatSessionId, String summary, long coveredMessageCount) {
+        String summaryKey = "chatSession:" + chatSessionId + ".summary";
+        Map<String, Object> value = new HashMap<>();
+        value.put("text", summary);
+        value.put("coveredMessageCount", coveredMessageCount);
+        redisTemplate.opsForHash().putAll(summaryKey, value);
+    }
+
+    public Map<Object, Object> getConversationSummary(String chatSessionId) {
+        String summaryKey = "chatSession:" + chatSessionId + ".summary";
+        return redisTemplate.opsForHash().entries(summaryKey);
+    }
+
+    // 保存對話目前的產品線，讓後續追問沿用同一個知識庫範圍
+    public void saveSessionDomain(String chatSessionId, String domain, Duration ttl) {
+        redisTemplate.opsForValue().set("chatSession:" + chatSessionId + ".domain", domain, ttl);
+    }
+
+    public String getSessionDomain(String chatSessionId) {
+        Object domain = redisTemplate.opsForValue().get("chatSession:" + chatSessionId + ".domain");
+        return domain != null ? domain.toString() : null;
+    }
+
+    // FAQ 問題被回答的次數，啟動預熱時優先處理最熱門的問題
+    public void incrementFaqPopularity(String question) {
+        redisTemplate.opsForZSet().incrementScore("faq:popularity", question, 1);
+    }
+
+    public List<String> getPopularFaqQuestions(int limit) {
+        Set<Object> questions = redisTemplate.opsForZSet().reverseRange("faq:popularity", 0, limit - 1);
+
+        if (questions == null) {
+            return Collections.emptyList();
+        }
+
+        return questions.stream()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+    }
+
     private ChatMessage convertToChatMessage(Object obj) {
         if (obj instanceof Map) {
             Map<?, ?> map = (Map<?, ?>) obj;
@@ -126,8 +185,12 @@ public class RedisService {
         String chatEmailKey = "chatSession:" + chatSessionId + ".email";
         String chatUnansweredCount = "chatSession:" + chatSessionId + ".unansweredCount";
         String sessionUserIdKey = "chatSession:" + chatSessionId + ".userId";
+        String chatSummaryKey = "chatSession:" + chatSessionId + ".summary";
+        String chatDomainKey = "chatSession:" + chatSessionId + ".domain";
 
         redisTemplate.delete(chatMessageKey);
+        redisTemplate.delete(chatSummaryKey);
+        redisTemplate.delete(chatDomainKey);
         redisTemplate.delete(sessionUserIdKey);
         redisTemplate.delete(chatEmailKey);
         redisTemplate.delete(chatUnansweredCount);
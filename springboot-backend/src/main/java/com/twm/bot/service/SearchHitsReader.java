@@ -0,0 +1,107 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes Elasticsearch responses with the Jackson streaming API, straight from the response stream into the
+ * document type: no String copy of the body and no JsonNode tree of it. Everything outside the hits (took,
+ * _shards, aggregations, ...) and outside each hit's _id, _score and _source is skipped without being built.
+ */
+final class SearchHitsReader {
+
+    private final ObjectMapper objectMapper;
+
+    SearchHitsReader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Reads {@code hits.hits[]} of a _search response.
+     */
+    <T> List<ElasticsearchService.Hit<T>> readHits(InputStream body, Class<T> type) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (!enterRoot(parser) || !enter(parser, "hits", JsonToken.START_OBJECT)
+                    || !enter(parser, "hits", JsonToken.START_ARRAY)) {
+                return new ArrayList<>();
+            }
+            return readHitArray(parser, type);
+        }
+    }
+
+    /**
+     * Reads {@code suggest.<suggestion>[0].options[]} of a completion suggester response; options have the same
+     * _id / _score / _source shape as hits.
+     */
+    <T> List<ElasticsearchService.Hit<T>> readSuggestOptions(InputStream body, String suggestion, Class<T> type) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (!enterRoot(parser) || !enter(parser, "suggest", JsonToken.START_OBJECT)
+                    || !enter(parser, suggestion, JsonToken.START_ARRAY)
+                    || parser.nextToken() != JsonToken.START_OBJECT || !enter(parser, "options", JsonToken.START_ARRAY)) {
+                return new ArrayList<>();
+            }
+            return readHitArray(parser, type);
+        }
+    }
+
+    /**
+     * Reads {@code _source} of a single document (GET _doc/id); null when the document wasn't found.
+     */
+    <T> T readSource(InputStream body, Class<T> type) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(body)) {
+            if (!enterRoot(parser) || !enter(parser, "_source", JsonToken.START_OBJECT)) {
+                return null;
+            }
+            return objectMapper.readValue(parser, type);
+        }
+    }
+
+    private <T> List<ElasticsearchService.Hit<T>> readHitArray(JsonParser parser, Class<T> type) throws IOException {
+        List<ElasticsearchService.Hit<T>> hits = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String id = null;
+            float score = 0f;
+            T source = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken value = parser.nextToken();
+                switch (field) {
+                    case "_id" -> id = parser.getText();
+                    case "_score" -> score = value == JsonToken.VALUE_NULL ? 0f : parser.getFloatValue();
+                    case "_source" -> source = objectMapper.readValue(parser, type);
+                    default -> parser.skipChildren();
+                }
+            }
+            hits.add(new ElasticsearchService.Hit<>(id, score, source));
+        }
+        return hits;
+    }
+
+    /**
+     * Moves the parser from the START_OBJECT of an object onto the value of its {@code field}, skipping the fields
+     * before it. Returns false when the field isn't there or its value isn't {@code expected}.
+     */
+    private static boolean enter(JsonParser parser, String field, JsonToken expected) throws IOException {
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            JsonToken value = parser.nextToken();
+            if (name.equals(field)) {
+                return value == expected;
+            }
+            parser.skipChildren();
+            token = parser.nextToken();
+        }
+        return false;
+    }
+
+    private static boolean enterRoot(JsonParser parser) throws IOException {
+        return parser.nextToken() == JsonToken.START_OBJECT;
+    }
+}
@@ -2,7 +2,10 @@ package com.twm.bot.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.twm.bot.model.KnowledgeChunk;
 import com.twm.bot.model.faq.FAQ;
+import com.twm.bot.util.TextNormalizer;
 import lombok.extern.log4j.Log4j2;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -15,16 +18,27 @@ import java.util.Optional;
 @Log4j2
 public class SearchService {
 
+    private static final int AUTOCOMPLETE_SIZE = 5;
+    private static final int PARTIAL_MATCH_SIZE = 10;
+    private static final int EXACT_MATCH_CANDIDATES = 5;
+
     private final ElasticsearchService elasticsearchService;
     private final ObjectMapper objectMapper;
+    private final LocalFaqIndex localFaqIndex;
 
     @Autowired
-    public SearchService(ElasticsearchService elasticsearchService, ObjectMapper objectMapper) {
+    public SearchService(ElasticsearchService elasticsearchService, ObjectMapper objectMapper, LocalFaqIndex localFaqIndex) {
         this.elasticsearchService = elasticsearchService;
         this.objectMapper = objectMapper;
+        this.localFaqIndex = localFaqIndex;
     }
 
     public List<FAQ> autocompleteFAQs(String prefix) throws Exception {
+        // Served in-process once the local FAQ index is loaded, Elasticsearch until then
+        if (localFaqIndex.isReady()) {
+            return localFaqIndex.autocomplete(prefix, AUTOCOMPLETE_SIZE);
+        }
+
         // Create the JSON query for prefix-based autocomplete
         String queryJson = "{ " +
                 "\"suggest\": { " +
@@ -32,29 +46,28 @@ public class SearchService {
                 "\"prefix\": \"" + prefix + "\", " +
                 "\"completion\": { " +
                 "\"field\": \"question.suggest\", " +
-                "\"size\": 5 " +
+                "\"size\": " + AUTOCOMPLETE_SIZE + " " +
                 "} " +
                 "} " +
                 "} " +
                 "}";
 
-        JsonNode searchResult = elasticsearchService.searchFAQs(queryJson);
         List<FAQ> faqs = new ArrayList<>();
-
-        JsonNode options = searchResult.path("suggest").path("question-suggest").get(0).path("options");
-        if (options.isArray()) {
-            for (JsonNode option : options) {
-                FAQ faq = objectMapper.treeToValue(option.path("_source"), FAQ.class);
-                faqs.add(faq);
-            }
+        for (ElasticsearchService.Hit<FAQ> option : elasticsearchService.suggestFAQs(queryJson, "question-suggest")) {
+            faqs.add(option.source());
         }
 
         return faqs;
     }
 
     public List<FAQ> partialMatchFAQs(String searchTerm) throws Exception {
+        if (localFaqIndex.isReady()) {
+            return localFaqIndex.partialMatch(searchTerm, PARTIAL_MATCH_SIZE);
+        }
+
         // Create the JSON query for n-gram based partial matching
         String queryJson = "{ " +
+                "\"size\": " + PARTIAL_MATCH_SIZE + ", " +
                 "\"query\": { " +
                 "\"match\": { " +
                 "\"question.ngram\": \"" + searchTerm + "\" " +
@@ -62,22 +75,39 @@ public class SearchService {
                 "} " +
                 "}";
 
-        JsonNode searchResult = elasticsearchService.searchFAQs(queryJson);
         List<FAQ> faqs = new ArrayList<>();
-
-        JsonNode hits = searchResult.path("hits").path("hits");
-        if (hits.isArray()) {
-            for (JsonNode hit : hits) {
-                FAQ faq = objectMapper.treeToValue(hit.path("_source"), FAQ.class);
-                faqs.add(faq);
-            }
+        for (ElasticsearchService.Hit<FAQ> hit : elasticsearchService.searchFAQHits(queryJson)) {
+            faqs.add(hit.source());
         }
 
         return faqs;
     }
 
+    /**
+     * BM25 full-text search over question and answer, used as the lexical side of hybrid retrieval.
+     * Each hit becomes a chunk with id {@code faq:<document id>} and its Elasticsearch score.
+     */
+    public List<KnowledgeChunk> fullTextSearchFAQs(String query, int size) throws Exception {
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("size", size);
+        ObjectNode multiMatch = root.putObject("query").putObject("multi_match");
+        multiMatch.put("query", query);
+        multiMatch.putArray("fields").add("question^2").add("question.ngram").add("answer");
+
+        List<KnowledgeChunk> chunks = new ArrayList<>();
+        for (ElasticsearchService.Hit<FAQ> hit : elasticsearchService.searchFAQHits(objectMapper.writeValueAsString(root))) {
+            FAQ faq = hit.source();
+            chunks.add(new KnowledgeChunk("faq:" + hit.id(), faq.getQuestion(),
+                    faq.getAnswer() != null ? faq.getAnswer() : "", hit.score()));
+        }
+
+        return chunks;
+    }
+
     public String indexFAQ(FAQ faq) throws Exception {
-        return elasticsearchService.indexFAQ(faq);
+        String id = elasticsearchService.indexFAQ(faq);
+        localFaqIndex.publish(List.of(new LocalFaqIndex.Change(id, faq)));
+        return id;
     }
 
     public List<String> bulkIndexFAQs(List<FAQ> faqs) throws Exception {
@@ -95,9 +125,17 @@ public class SearchService {
 
         // Extract and return the list of generated document IDs
         List<String> ids = new ArrayList<>();
+        List<LocalFaqIndex.Change> changes = new ArrayList<>();
+        int position = 0;
         for (JsonNode item : response.path("items")) {
-            ids.add(item.path("index").path("_id").asText());
+            JsonNode index = item.path("index");
+            ids.add(index.path("_id").asText());
+            if (!index.has("error") && position < faqs.size()) {
+                changes.add(new LocalFaqIndex.Change(index.path("_id").asText(), faqs.get(position)));
+            }
+            position++;
         }
+        localFaqIndex.publish(changes);
 
         return ids;
     }
@@ -106,28 +144,37 @@ public class SearchService {
 
     public void deleteFAQ(String documentId) throws Exception {
         elasticsearchService.deleteFAQ(documentId);
+        localFaqIndex.publish(List.of(new LocalFaqIndex.Change(documentId, null)));
     }
 
     public FAQ getFAQ(String documentId) throws Exception {
         return elasticsearchService.getFAQ(documentId);
     }
 
+    /**
+     * The FAQ whose question is the message itself, ignoring width, case, whitespace, punctuation and Traditional /
+     * Simplified differences (see {@link TextNormalizer}).
+     */
     public Optional<FAQ> exactMatchFAQ(String searchTerm) throws Exception {
-        String queryJson = "{ " +
-                "\"query\": { " +
-                "\"query_string\": { " +
-                "\"default_field\": \"question\", " +
-                "\"query\": \"\\\"" + searchTerm + "\\\"\" " +
-                "} " +
-                "} " +
-                "}";
-        JsonNode searchResult = elasticsearchService.searchFAQs(queryJson);
-        JsonNode hits = searchResult.path("hits").path("hits");
-        if (hits.isArray() && hits.size() > 0) {
-            FAQ faq = objectMapper.treeToValue(hits.get(0).path("_source"), FAQ.class);
-            return Optional.of(faq);
-        } else {
+        if (localFaqIndex.isReady()) {
+            return localFaqIndex.exactMatch(searchTerm);
+        }
+
+        String key = TextNormalizer.normalize(searchTerm);
+        if (key.isEmpty()) {
             return Optional.empty();
         }
+        // A phrase query narrows it down to questions containing the message; equal keys decide, the same as the
+        // local index, so results don't change when it takes over
+        ObjectNode root = objectMapper.createObjectNode();
+        root.put("size", EXACT_MATCH_CANDIDATES);
+        root.putObject("query").putObject("match_phrase").put("question", searchTerm);
+
+        for (ElasticsearchService.Hit<FAQ> hit : elasticsearchService.searchFAQHits(objectMapper.writeValueAsString(root))) {
+            if (hit.source() != null && key.equals(TextNormalizer.normalize(hit.source().getQuestion()))) {
+                return Optional.of(hit.source());
+            }
+        }
+        return Optional.empty();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,107 @@
+package com.twm.bot.service;
+
+import com.twm.bot.util.VectorMath;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Caches generated answers by query embedding so near-duplicate questions skip the completion call.
+ * <p>
+ * A cached answer is served when the new query's cosine similarity to a cached query is at least the configured
+ * threshold and retrieval returned exactly the same knowledge base chunks. Entries expire after their TTL and are
+ * ignored as soon as the knowledge base version changes.
+ * <p>
+ * Entries are served to every chat session, so callers must only {@link #put} answers generated without any
+ * session-specific input such as earlier turns of the conversation.
+ */
+@Log4j2
+@Service
+public class SemanticAnswerCache {
+
+    private record Entry(float[] queryVector, List<String> contextIds, String answer, long kbVersion,
+                         long expiresAtMillis, long computeNanos) {
+    }
+
+    private final KnowledgeBaseVersionService knowledgeBaseVersionService;
+    private final boolean enabled;
+    private final double similarityThreshold;
+    private final Duration ttl;
+    private final int maxEntries;
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Timer latencySaved;
+
+    public SemanticAnswerCache(KnowledgeBaseVersionService knowledgeBaseVersionService,
+                               MeterRegistry meterRegistry,
+                               @Value("${semantic-cache.enabled:true}") boolean enabled,
+                               @Value("${semantic-cache.similarity-threshold:0.95}") double similarityThreshold,
+                               @Value("${semantic-cache.ttl:6h}") Duration ttl,
+                               @Value("${semantic-cache.max-entries:2000}") int maxEntries) {
+        this.knowledgeBaseVersionService = knowledgeBaseVersionService;
+        this.enabled = enabled;
+        this.similarityThreshold = similarityThreshold;
+        this.ttl = ttl;
+        this.maxEntries = maxEntries;
+        this.hits = Counter.builder("semantic.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("semantic.cache").tag("result", "miss").register(meterRegistry);
+        this.latencySaved = Timer.builder("semantic.cache.latency.saved")
+                .description("Completion time originally spent on answers served from the semantic cache")
+                .register(meterRegistry);
+    }
+
+    public Optional<String> lookup(float[] queryVector, List<String> contextIds) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+
+        float[] query = VectorMath.normalize(queryVector);
+        long kbVersion = knowledgeBaseVersionService.current();
+        long now = System.currentTimeMillis();
+        Entry best = null;
+        double bestSimilarity = similarityThreshold;
+        for (Entry entry : entries) {
+            if (entry.kbVersion() != kbVersion || entry.expiresAtMillis() < now || !entry.contextIds().equals(contextIds)) {
+                continue;
+            }
+            double similarity = VectorMath.dot(query, entry.queryVector());
+            if (similarity >= bestSimilarity) {
+                bestSimilarity = similarity;
+                best = entry;
+            }
+        }
+
+        if (best == null) {
+            misses.increment();
+            return Optional.empty();
+        }
+        hits.increment();
+        latencySaved.record(Duration.ofNanos(best.computeNanos()));
+        log.debug("Semantic cache hit with similarity {}", bestSimilarity);
+        return Optional.of(best.answer());
+    }
+
+    public void put(float[] queryVector, List<String> contextIds, String answer, long computeNanos) {
+        if (!enabled) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long kbVersion = knowledgeBaseVersionService.current();
+        entries.removeIf(entry -> entry.kbVersion() != kbVersion || entry.expiresAtMillis() < now);
+        entries.add(new Entry(VectorMath.normalize(queryVector), List.copyOf(contextIds), answer, kbVersion,
+                now + ttl.toMillis(), computeNanos));
+        while (entries.size() > maxEntries) {
+            entries.remove(0);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.twm.bot.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.twm.bot.model.faq.FAQ;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Computes FAQ suggestions for the chat input box, per chat session, only for the latest input.
+ * <p>
+ * The UI asks for suggestions on every input change. Per session at most one lookup runs at a time and lookups
+ * start at least {@code min-interval} apart; the first keystroke after a pause is served right away. A request that
+ * arrives while another one is waiting replaces it (superseded), and a result whose input was replaced while it was
+ * being computed is thrown away instead of sent (stale). Either way the user only ever sees suggestions for what is
+ * in the box now.
+ * <p>
+ * Requests are grouped by authenticated user and chat session, so one user can't supersede another user's lookups by
+ * sending the same session id. Requests without a session id aren't coalesced at all.
+ */
+@Log4j2
+@Service
+public class SuggestionCoalescer {
+
+    private static final int MAX_SUGGESTIONS = 3;
+
+    private record Request(String input, Consumer<List<String>> onResult) {
+    }
+
+    // All fields guarded by the slot itself
+    private static final class Slot {
+        Request pending;
+        boolean scheduled;
+        long lastStartNanos = Long.MIN_VALUE;
+    }
+
+    private final SearchService searchService;
+    private final long minIntervalNanos;
+    private final Cache<String, Slot> slots;
+    private final ScheduledExecutorService scheduler;
+    private final Counter sent;
+    private final Counter superseded;
+    private final Counter stale;
+
+    public SuggestionCoalescer(SearchService searchService,
+                               MeterRegistry meterRegistry,
+                               @Value("${bot.suggestions.min-interval:150ms}") Duration minInterval,
+                               @Value("${bot.suggestions.threads:2}") int threads) {
+        this.searchService = searchService;
+        this.minIntervalNanos = minInterval.toNanos();
+        // idle sessions are forgotten; a session coming back just starts without a pause to respect
+        this.slots = Caffeine.newBuilder()
+                .expireAfterAccess(Duration.ofMinutes(5))
+                .build();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "suggestions-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.sent = Counter.builder("chat.suggestions").tag("outcome", "sent")
+                .description("Suggestion requests by outcome; superseded and stale ones were never sent")
+                .register(meterRegistry);
+        this.superseded = Counter.builder("chat.suggestions").tag("outcome", "superseded")
+                .description("Suggestion requests by outcome; superseded and stale ones were never sent")
+                .register(meterRegistry);
+        this.stale = Counter.builder("chat.suggestions").tag("outcome", "stale")
+                .description("Suggestion requests by outcome; superseded and stale ones were never sent")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Asks for suggestions for {@code input}; {@code onResult} is called with up to three FAQ questions, on a
+     * suggestion thread, unless a newer request of the same user and session comes first.
+     */
+    public void submit(String user, String chatSessionId, String input, Consumer<List<String>> onResult) {
+        Request request = new Request(input, onResult);
+        if (chatSessionId == null) {
+            // Nothing tells which of these requests replace each other, so each one is answered
+            scheduler.execute(() -> answer(request));
+            return;
+        }
+        Slot slot = slots.get(user + '\u0000' + chatSessionId, key -> new Slot());
+        synchronized (slot) {
+            if (slot.pending != null) {
+                superseded.increment();
+            }
+            slot.pending = request;
+            if (!slot.scheduled) {
+                slot.scheduled = true;
+                schedule(slot);
+            }
+        }
+    }
+
+    private void schedule(Slot slot) {
+        long delay = slot.lastStartNanos == Long.MIN_VALUE ? 0
+                : Math.max(0, slot.lastStartNanos + minIntervalNanos - System.nanoTime());
+        scheduler.schedule(() -> run(slot), delay, TimeUnit.NANOSECONDS);
+    }
+
+    private void run(Slot slot) {
+        Request request;
+        synchronized (slot) {
+            request = slot.pending;
+            slot.pending = null;
+            slot.lastStartNanos = System.nanoTime();
+        }
+
+        List<String> suggestions = null;
+        try {
+            suggestions = suggest(request.input());
+        } catch (Exception e) {
+            log.warn("Failed to get suggestions: {}", e.getMessage());
+        }
+
+        boolean replaced;
+        synchronized (slot) {
+            replaced = slot.pending != null;
+        }
+        if (replaced) {
+            stale.increment();
+        } else if (suggestions != null) {
+            sent.increment();
+            try {
+                request.onResult().accept(suggestions);
+            } catch (RuntimeException e) {
+                log.warn("Failed to send suggestions: {}", e.getMessage());
+            }
+        }
+
+        // Still marked scheduled until here, so a newer request can't overtake this send
+        synchronized (slot) {
+            if (slot.pending != null) {
+                schedule(slot);
+            } else {
+                slot.scheduled = false;
+            }
+        }
+    }
+
+    private void answer(Request request) {
+        try {
+            List<String> suggestions = suggest(request.input());
+            sent.increment();
+            request.onResult().accept(suggestions);
+        } catch (Exception e) {
+            log.warn("Failed to get or send suggestions: {}", e.getMessage());
+        }
+    }
+
+    private List<String> suggest(String input) throws Exception {
+        return searchService.partialMatchFAQs(input).stream()
+                .map(FAQ::getQuestion)
+                .limit(MAX_SUGGESTIONS)
+                .toList();
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+package com.twm.bot.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local BPE token counting (cl100k_base / o200k_base), so prompt size can be controlled without asking the API.
+ */
+@Service
+public class TokenCounter {
+
+    // Every chat message costs a few tokens of framing on top of its role and content
+    private static final int TOKENS_PER_MESSAGE = 3;
+    // Every reply is primed with <|start|>assistant<|message|>
+    private static final int TOKENS_PER_REPLY = 3;
+
+    private final Encoding encoding;
+
+    public TokenCounter(@Value("${openai.tokenizer.encoding:o200k_base}") String encodingName) {
+        this.encoding = Encodings.newDefaultEncodingRegistry()
+                .getEncoding(encodingName)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown tokenizer encoding: " + encodingName));
+    }
+
+    public int count(String text) {
+        return text == null || text.isEmpty() ? 0 : encoding.countTokens(text);
+    }
+
+    public int countMessage(Map<String, String> message) {
+        return TOKENS_PER_MESSAGE + count(message.get("role")) + count(message.get("content"));
+    }
+
+    public int countMessages(List<Map<String, String>> messages) {
+        int tokens = TOKENS_PER_REPLY;
+        for (Map<String, String> message : messages) {
+            tokens += countMessage(message);
+        }
+        return tokens;
+    }
+
+    /**
+     * @return {@code text} cut down to at most {@code maxTokens} tokens
+     */
+    public String truncate(String text, int maxTokens) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        EncodingResult result = encoding.encode(text, maxTokens);
+        return result.isTruncated() ? encoding.decode(result.getTokens()) : text;
+    }
+}
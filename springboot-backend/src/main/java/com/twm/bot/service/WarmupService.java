@@ -0,0 +1,211 @@
+package com.twm.bot.service;
+
+import com.twm.bot.model.RetrievedContext;
+import com.twm.bot.util.Deadline;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.log4j.Log4j2;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Takes the cold costs of a fresh instance before it gets traffic instead of letting the first users pay them.
+ * <p>
+ * Runs as an {@link ApplicationRunner}: Spring Boot only publishes {@code ReadinessState.ACCEPTING_TRAFFIC} after
+ * every runner returned, so /actuator/health/readiness stays OUT_OF_SERVICE until warmup is done while liveness is
+ * already UP. Warmup
+ * <ol>
+ *     <li>opens the ES, Redis and Milvus connections and loads the initial FAQs, the local vector and FAQ indexes
+ *     and the intent centroids (concurrently),</li>
+ *     <li>then runs the N most popular FAQ questions through the hot path of a chat turn: exact and partial FAQ
+ *     match, intent, embedding + hybrid retrieval and, with {@code bot.warmup.pre-answer}, the completion. That
+ *     opens OpenAI connections, fills the embedding cache and the semantic answer cache (users mostly paraphrase
+ *     FAQs, which misses the exact match but hits the cached answer) and gives the JIT the real code paths.</li>
+ * </ol>
+ * Everything is best effort and bounded by {@code bot.warmup.timeout}: an instance with cold caches is still better
+ * than one that never becomes ready.
+ */
+@Log4j2
+@Service
+public class WarmupService implements ApplicationRunner {
+
+    // Never written to, so pre-answers are generated without conversation history
+    static final String WARMUP_SESSION_ID = "warmup";
+
+    private final InitialFaqService initialFaqService;
+    private final ElasticsearchService elasticsearchService;
+    private final SearchService searchService;
+    private final RedisService redisService;
+    private final MilvusService milvusService;
+    private final LocalVectorIndex localVectorIndex;
+    private final LocalFaqIndex localFaqIndex;
+    private final IntentClassifier intentClassifier;
+    private final CustomerService customerService;
+    private final AsyncTaskExecutor executor;
+    private final boolean enabled;
+    private final int topN;
+    private final boolean preAnswer;
+    private final Duration timeout;
+    private final Timer warmupTimer;
+
+    public WarmupService(InitialFaqService initialFaqService,
+                         ElasticsearchService elasticsearchService,
+                         SearchService searchService,
+                         RedisService redisService,
+                         MilvusService milvusService,
+                         LocalVectorIndex localVectorIndex,
+                         LocalFaqIndex localFaqIndex,
+                         IntentClassifier intentClassifier,
+                         CustomerService customerService,
+                         @Qualifier("botPipelineExecutor") AsyncTaskExecutor executor,
+                         MeterRegistry meterRegistry,
+                         @Value("${bot.warmup.enabled:true}") boolean enabled,
+                         @Value("${bot.warmup.top-n:20}") int topN,
+                         @Value("${bot.warmup.pre-answer:true}") boolean preAnswer,
+                         @Value("${bot.warmup.timeout:60s}") Duration timeout) {
+        this.initialFaqService = initialFaqService;
+        this.elasticsearchService = elasticsearchService;
+        this.searchService = searchService;
+        this.redisService = redisService;
+        this.milvusService = milvusService;
+        this.localVectorIndex = localVectorIndex;
+        this.localFaqIndex = localFaqIndex;
+        this.intentClassifier = intentClassifier;
+        this.customerService = customerService;
+        this.executor = executor;
+        this.enabled = enabled;
+        this.topN = topN;
+        this.preAnswer = preAnswer;
+        this.timeout = timeout;
+        this.warmupTimer = Timer.builder("bot.warmup")
+                .description("Time from application start until warmup finished and the instance reported ready")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Deadline.after(timeout).call(() -> {
+                warmUp();
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Warmup stopped early, starting with partly cold caches: {}", String.valueOf(e));
+        } finally {
+            long nanos = System.nanoTime() - start;
+            warmupTimer.record(nanos, TimeUnit.NANOSECONDS);
+            log.info("Warmup finished in {} ms", TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    private void warmUp() throws InterruptedException {
+        // Step 1: connections and in-process state that don't depend on each other
+        Map<String, Future<?>> steps = new LinkedHashMap<>();
+        steps.put("initial FAQs", submit(() -> {
+            initialFaqService.refresh();
+            return null;
+        }));
+        steps.put("Milvus connection", submit(() -> milvusService.hasCollection(milvusService.getCollection())));
+        steps.put("local vector index", submit(() -> {
+            localVectorIndex.refresh();
+            return null;
+        }));
+        steps.put("local FAQ index", submit(() -> {
+            localFaqIndex.refresh();
+            return null;
+        }));
+        steps.put("intent centroids", submit(() -> {
+            intentClassifier.loadCentroids();
+            return null;
+        }));
+        int failed = awaitAll(steps);
+
+        // Step 2: the hot path, once per popular question
+        Map<String, Future<?>> questions = new LinkedHashMap<>();
+        for (String question : popularQuestions()) {
+            questions.put(question, submit(() -> warmUpQuestion(question)));
+        }
+        int questionsFailed = awaitAll(questions);
+        log.info("Warmup: {}/{} steps and {}/{} questions succeeded", steps.size() - failed, steps.size(),
+                questions.size() - questionsFailed, questions.size());
+    }
+
+    private Void warmUpQuestion(String question) throws Exception {
+        searchService.exactMatchFAQ(question);
+        searchService.partialMatchFAQs(question);
+        intentClassifier.classify(question);
+        RetrievedContext context = customerService.getKnowledgeBase(question);
+        if (preAnswer) {
+            customerService.getAIResponseWithContext(question, WARMUP_SESSION_ID, context, null);
+        }
+        return null;
+    }
+
+    /**
+     * The most answered FAQ questions, topped up with random FAQs while there's little history (e.g. a new Redis).
+     */
+    private List<String> popularQuestions() {
+        Set<String> questions = new LinkedHashSet<>();
+        try {
+            questions.addAll(redisService.getPopularFaqQuestions(topN));
+        } catch (RuntimeException e) {
+            log.warn("FAQ popularity unavailable for warmup: {}", e.getMessage());
+        }
+        if (questions.size() < topN) {
+            try {
+                questions.addAll(elasticsearchService.getRandomFAQMap(topN - questions.size()).keySet());
+            } catch (Exception e) {
+                log.warn("Random FAQs unavailable for warmup: {}", e.getMessage());
+            }
+        }
+        questions.remove(null);
+        return new ArrayList<>(questions).subList(0, Math.min(topN, questions.size()));
+    }
+
+    private Future<?> submit(Callable<?> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Waits for every task until the warmup deadline, cancelling whatever is still running then.
+     *
+     * @return the number of tasks that failed or didn't finish
+     */
+    private int awaitAll(Map<String, Future<?>> tasks) throws InterruptedException {
+        int failed = 0;
+        for (Map.Entry<String, Future<?>> task : tasks.entrySet()) {
+            try {
+                task.getValue().get(Deadline.current().remaining().toMillis(), TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                failed++;
+                log.warn("Warmup of {} failed: {}", task.getKey(), String.valueOf(e.getCause()));
+            } catch (TimeoutException e) {
+                failed++;
+                task.getValue().cancel(true);
+                log.warn("Warmup of {} didn't finish within {}", task.getKey(), timeout);
+            }
+        }
+        return failed;
+    }
+}
@@ -0,0 +1,87 @@
+package com.twm.bot.util;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Point in time by which a chat turn must be answered.
+ * <p>
+ * The deadline of the current turn is kept in a thread local so downstream calls (OpenAI, Milvus) can size their
+ * own timeouts from what is left, without threading it through every method signature. {@link #propagate(Runnable)}
+ * carries it over to executor threads and is installed as the task decorator of the pipeline executor.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    public static Deadline after(Duration duration) {
+        return new Deadline(System.nanoTime() + duration.toNanos());
+    }
+
+    /**
+     * @return the deadline of the current turn, or null when the caller has none
+     */
+    public static Deadline current() {
+        return CURRENT.get();
+    }
+
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAtNanos - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+
+    /**
+     * @return {@code timeout} capped by what is left of the current deadline, if any
+     */
+    public static Duration cap(Duration timeout) {
+        Deadline deadline = current();
+        if (deadline == null) {
+            return timeout;
+        }
+        Duration remaining = deadline.remaining();
+        return remaining.compareTo(timeout) < 0 ? remaining : timeout;
+    }
+
+    public <T> T call(Callable<T> task) throws Exception {
+        Deadline previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    public static Runnable propagate(Runnable task) {
+        Deadline captured = CURRENT.get();
+        if (captured == null) {
+            return task;
+        }
+        return () -> {
+            Deadline previous = CURRENT.get();
+            CURRENT.set(captured);
+            try {
+                task.run();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    private static void restore(Deadline previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
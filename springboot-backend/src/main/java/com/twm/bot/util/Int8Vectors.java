@@ -0,0 +1,90 @@
+package com.twm.bot.util;
+
+/**
+ * Int8 scalar-quantized copy of a set of vectors, a quarter of the float32 size.
+ * <p>
+ * Each row is quantized symmetrically with its own scale ({@code max |x_i| / 127}), so {@code x_i ≈ scale * code_i}.
+ * Queries stay in float32 (asymmetric distance): {@code q · x ≈ scale * Σ q_i * code_i}, which loses less accuracy
+ * than quantizing the query as well. The result is meant for ranking candidates, which are then re-scored exactly.
+ */
+public final class Int8Vectors {
+
+    private final int dimension;
+    private final byte[] codes;
+    private final float[] scales;
+    // Squared norms of the original rows, for L2 distance
+    private final float[] squaredNorms;
+
+    private Int8Vectors(int dimension, byte[] codes, float[] scales, float[] squaredNorms) {
+        this.dimension = dimension;
+        this.codes = codes;
+        this.scales = scales;
+        this.squaredNorms = squaredNorms;
+    }
+
+    /**
+     * @param vectors row-major, {@code dimension} floats per row
+     */
+    public static Int8Vectors quantize(float[] vectors, int dimension) {
+        int size = dimension == 0 ? 0 : vectors.length / dimension;
+        byte[] codes = new byte[vectors.length];
+        float[] scales = new float[size];
+        float[] squaredNorms = new float[size];
+        for (int row = 0; row < size; row++) {
+            int offset = row * dimension;
+            float maxAbs = 0f;
+            float squaredNorm = 0f;
+            for (int i = 0; i < dimension; i++) {
+                float value = vectors[offset + i];
+                maxAbs = Math.max(maxAbs, Math.abs(value));
+                squaredNorm += value * value;
+            }
+            float scale = maxAbs == 0f ? 1f : maxAbs / 127f;
+            for (int i = 0; i < dimension; i++) {
+                codes[offset + i] = (byte) Math.round(vectors[offset + i] / scale);
+            }
+            scales[row] = scale;
+            squaredNorms[row] = squaredNorm;
+        }
+        return new Int8Vectors(dimension, codes, scales, squaredNorms);
+    }
+
+    public int size() {
+        return scales.length;
+    }
+
+    public int dimension() {
+        return dimension;
+    }
+
+    /**
+     * @return approximate dot product of {@code query} with row {@code row}
+     */
+    public float dot(float[] query, int row) {
+        int offset = row * dimension;
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = dimension - 3;
+        for (; i < bound; i += 4) {
+            s0 += query[i] * codes[offset + i];
+            s1 += query[i + 1] * codes[offset + i + 1];
+            s2 += query[i + 2] * codes[offset + i + 2];
+            s3 += query[i + 3] * codes[offset + i + 3];
+        }
+        for (; i < dimension; i++) {
+            s0 += query[i] * codes[offset + i];
+        }
+        return scales[row] * ((s0 + s1) + (s2 + s3));
+    }
+
+    /**
+     * @return approximate squared L2 distance, {@code |q|² - 2 q·x + |x|²}
+     */
+    public float squaredDistance(float[] query, float querySquaredNorm, int row) {
+        return querySquaredNorm - 2f * dot(query, row) + squaredNorms[row];
+    }
+
+    public long memoryBytes() {
+        return codes.length + 4L * scales.length + 4L * squaredNorms.length;
+    }
+}
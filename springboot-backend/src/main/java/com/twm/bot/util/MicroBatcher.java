@@ -0,0 +1,137 @@
+package com.twm.bot.util;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects single-item requests from concurrent callers and hands them to a {@link BatchHandler} in batches.
+ * <p>
+ * A batch is flushed once it holds {@code maxBatchSize} items or when {@code maxLinger} has passed since its first
+ * item arrived, whichever comes first. Each caller gets a future completed with the output at its own position;
+ * if the handler fails, every future of that batch fails with the same exception.
+ */
+@Log4j2
+public class MicroBatcher<I, O> implements AutoCloseable {
+
+    @FunctionalInterface
+    public interface BatchHandler<I, O> {
+        /**
+         * @return one output per input, in input order
+         */
+        List<O> handle(List<I> inputs) throws Exception;
+    }
+
+    private record Pending<I, O>(I input, CompletableFuture<O> future) {
+    }
+
+    private final BatchHandler<I, O> handler;
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final BlockingQueue<Pending<I, O>> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService flushExecutor;
+    private final Thread dispatcher;
+    private volatile boolean running = true;
+
+    public MicroBatcher(String name, BatchHandler<I, O> handler, int maxBatchSize, Duration maxLinger, int concurrency) {
+        this.handler = handler;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = maxLinger.toNanos();
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.flushExecutor = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable -> {
+            Thread thread = new Thread(runnable, name + "-flush-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.dispatcher = new Thread(this::dispatchLoop, name + "-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    public CompletableFuture<O> submit(I input) {
+        CompletableFuture<O> future = new CompletableFuture<>();
+        if (!running) {
+            future.completeExceptionally(new IllegalStateException("Batcher is closed"));
+            return future;
+        }
+        queue.add(new Pending<>(input, future));
+        return future;
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            try {
+                Pending<I, O> first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+                batch.add(first);
+                long deadline = System.nanoTime() + maxLingerNanos;
+                while (batch.size() < maxBatchSize) {
+                    // Take whatever is already queued before waiting for stragglers
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    Pending<I, O> next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flushExecutor.execute(() -> flush(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void flush(List<Pending<I, O>> batch) {
+        // Callers that already gave up (timeout / cancel) don't need to be sent
+        List<Pending<I, O>> live = batch.stream().filter(p -> !p.future().isDone()).toList();
+        if (live.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<O> outputs = handler.handle(live.stream().map(Pending::input).toList());
+            if (outputs.size() != live.size()) {
+                throw new IllegalStateException("Batch handler returned " + outputs.size() + " results for " + live.size() + " inputs");
+            }
+            for (int i = 0; i < live.size(); i++) {
+                live.get(i).future().complete(outputs.get(i));
+            }
+        } catch (Exception e) {
+            log.warn("Batch of {} failed: {}", live.size(), e.getMessage());
+            live.forEach(p -> p.future().completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        dispatcher.interrupt();
+        flushExecutor.shutdown();
+        Pending<I, O> pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future().completeExceptionally(new IllegalStateException("Batcher is closed"));
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.twm.bot.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable inverted index from character n-grams to rows, for partial ("contains") matching of short texts.
+ * <p>
+ * Text is cut into runs of CJK characters and runs of other letters / digits. A CJK run contributes its single
+ * characters and its bigrams (Chinese has no spaces, so words can't be split off); any other run contributes the
+ * lowercased word and its bigrams. Each n-gram maps to a sorted {@code int[]} of the rows containing it.
+ * <p>
+ * Rows are scored like BM25 with every term frequency taken as 1 (questions are short): the sum over the distinct
+ * query n-grams a row contains of their idf, normalized by row length. Any shared n-gram is a match, the same as an
+ * Elasticsearch {@code match} query on an n-gram field.
+ */
+public final class NgramIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    private final Map<String, int[]> postings;
+    private final int[] lengths;
+    private final float averageLength;
+
+    private NgramIndex(Map<String, int[]> postings, int[] lengths, float averageLength) {
+        this.postings = postings;
+        this.lengths = lengths;
+        this.averageLength = averageLength;
+    }
+
+    /**
+     * @param texts one text per row (null texts match nothing)
+     */
+    public static NgramIndex build(String[] texts) {
+        List<Set<String>> grams = new ArrayList<>(texts.length);
+        Map<String, int[]> counts = new HashMap<>();
+        int[] lengths = new int[texts.length];
+        long totalLength = 0;
+        for (int row = 0; row < texts.length; row++) {
+            Set<String> rowGrams = texts[row] != null ? grams(texts[row]) : Set.of();
+            grams.add(rowGrams);
+            lengths[row] = rowGrams.size();
+            totalLength += rowGrams.size();
+            for (String gram : rowGrams) {
+                counts.computeIfAbsent(gram, g -> new int[1])[0]++;
+            }
+        }
+
+        // Second pass fills exactly sized posting lists; rows are visited in order, so each list is sorted
+        Map<String, int[]> postings = new HashMap<>(counts.size() * 4 / 3 + 1);
+        Map<String, int[]> filled = new HashMap<>(counts.size() * 4 / 3 + 1);
+        counts.forEach((gram, count) -> {
+            postings.put(gram, new int[count[0]]);
+            filled.put(gram, new int[1]);
+        });
+        for (int row = 0; row < texts.length; row++) {
+            for (String gram : grams.get(row)) {
+                postings.get(gram)[filled.get(gram)[0]++] = row;
+            }
+        }
+        return new NgramIndex(postings, lengths, texts.length == 0 ? 0f : (float) totalLength / texts.length);
+    }
+
+    /**
+     * @return the best {@code k} rows sharing at least one n-gram with {@code query}, best first
+     */
+    public TopK search(String query, int k) {
+        TopK best = new TopK(k);
+        Set<String> queryGrams = grams(query);
+        if (queryGrams.isEmpty() || lengths.length == 0) {
+            return best;
+        }
+
+        float[] scores = new float[lengths.length];
+        int[] touched = new int[lengths.length];
+        int touchedCount = 0;
+        for (String gram : queryGrams) {
+            int[] rows = postings.get(gram);
+            if (rows == null) {
+                continue;
+            }
+            float idf = (float) Math.log(1 + (lengths.length - rows.length + 0.5) / (rows.length + 0.5));
+            for (int row : rows) {
+                if (scores[row] == 0f) {
+                    touched[touchedCount++] = row;
+                }
+                float norm = K1 * (1 - B + B * lengths[row] / averageLength);
+                scores[row] += idf * (K1 + 1) / (1 + norm);
+            }
+        }
+        for (int i = 0; i < touchedCount; i++) {
+            best.offer(touched[i], scores[touched[i]]);
+        }
+        return best;
+    }
+
+    public int termCount() {
+        return postings.size();
+    }
+
+    static Set<String> grams(String text) {
+        String lower = text.toLowerCase(Locale.ROOT);
+        Set<String> grams = new LinkedHashSet<>();
+        int i = 0;
+        while (i < lower.length()) {
+            int codePoint = lower.codePointAt(i);
+            if (isCjk(codePoint)) {
+                int end = i;
+                while (end < lower.length() && isCjk(lower.codePointAt(end))) {
+                    end += Character.charCount(lower.codePointAt(end));
+                }
+                addCjkRun(lower.substring(i, end), grams);
+                i = end;
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                int end = i;
+                while (end < lower.length() && !isCjk(lower.codePointAt(end)) && Character.isLetterOrDigit(lower.codePointAt(end))) {
+                    end += Character.charCount(lower.codePointAt(end));
+                }
+                String word = lower.substring(i, end);
+                grams.add(word);
+                addBigrams(word, grams);
+                i = end;
+            } else {
+                i += Character.charCount(codePoint);
+            }
+        }
+        return grams;
+    }
+
+    private static void addCjkRun(String run, Set<String> grams) {
+        run.codePoints().forEach(codePoint -> grams.add(new String(Character.toChars(codePoint))));
+        addBigrams(run, grams);
+    }
+
+    private static void addBigrams(String run, Set<String> grams) {
+        int[] codePoints = run.codePoints().toArray();
+        for (int i = 0; i + 1 < codePoints.length; i++) {
+            grams.add(new String(codePoints, i, 2));
+        }
+    }
+
+    private static boolean isCjk(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,116 @@
+package com.twm.bot.util;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Immutable compressed prefix trie (radix tree) answering "the best k rows whose key starts with this prefix".
+ * <p>
+ * Chains of single-child nodes are collapsed into one edge, so the tree has at most twice as many nodes as keys, and
+ * every node keeps the best {@code k} rows of its subtree precomputed. A lookup walks at most the prefix length in
+ * characters and allocates nothing but the returned array.
+ */
+public final class RadixTrie {
+
+    private static final int[] NONE = new int[0];
+
+    private static final class Node {
+        // children sorted by the first character of their edge
+        char[] firsts = new char[0];
+        String[] edges = new String[0];
+        Node[] children = new Node[0];
+        int[] top = NONE;
+    }
+
+    private final Node root;
+
+    private RadixTrie(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * @param keys one key per row (null keys are left out)
+     * @param rank rows in the order they should be suggested, best first
+     * @param k    how many rows each prefix keeps
+     */
+    public static RadixTrie build(String[] keys, Comparator<Integer> rank, int k) {
+        Integer[] rows = new Integer[keys.length];
+        int count = 0;
+        for (int row = 0; row < keys.length; row++) {
+            if (keys[row] != null) {
+                rows[count++] = row;
+            }
+        }
+        Integer[] sorted = Arrays.copyOf(rows, count);
+        Arrays.sort(sorted, Comparator.comparing((Integer row) -> keys[row]).thenComparing(rank));
+        return new RadixTrie(build(keys, sorted, 0, sorted.length, 0, rank, k));
+    }
+
+    private static Node build(String[] keys, Integer[] sorted, int from, int to, int depth, Comparator<Integer> rank, int k) {
+        Node node = new Node();
+        Integer[] range = Arrays.copyOfRange(sorted, from, to);
+        Arrays.sort(range, rank);
+        node.top = new int[Math.min(k, range.length)];
+        for (int i = 0; i < node.top.length; i++) {
+            node.top[i] = range[i];
+        }
+
+        // keys ending at this node sort first; the rest are grouped by their next character
+        int start = from;
+        while (start < to && keys[sorted[start]].length() == depth) {
+            start++;
+        }
+        int groups = 0;
+        char[] firsts = new char[to - start];
+        String[] edges = new String[to - start];
+        Node[] children = new Node[to - start];
+        while (start < to) {
+            char first = keys[sorted[start]].charAt(depth);
+            int end = start + 1;
+            while (end < to && keys[sorted[end]].charAt(depth) == first) {
+                end++;
+            }
+            // sorted keys: the common prefix of the group is the one of its first and last key
+            String low = keys[sorted[start]];
+            String high = keys[sorted[end - 1]];
+            int common = depth + 1;
+            while (common < low.length() && common < high.length() && low.charAt(common) == high.charAt(common)) {
+                common++;
+            }
+            firsts[groups] = first;
+            edges[groups] = low.substring(depth, common);
+            children[groups] = build(keys, sorted, start, end, common, rank, k);
+            groups++;
+            start = end;
+        }
+        node.firsts = Arrays.copyOf(firsts, groups);
+        node.edges = Arrays.copyOf(edges, groups);
+        node.children = Arrays.copyOf(children, groups);
+        return node;
+    }
+
+    /**
+     * @return the best rows whose key starts with {@code prefix}, best first (the caller must not modify the array)
+     */
+    public int[] startingWith(String prefix) {
+        Node node = root;
+        int depth = 0;
+        while (depth < prefix.length()) {
+            int child = Arrays.binarySearch(node.firsts, prefix.charAt(depth));
+            if (child < 0) {
+                return NONE;
+            }
+            String edge = node.edges[child];
+            int remaining = prefix.length() - depth;
+            if (remaining <= edge.length()) {
+                return edge.regionMatches(0, prefix, depth, remaining) ? node.children[child].top : NONE;
+            }
+            if (!prefix.regionMatches(depth, edge, 0, edge.length())) {
+                return NONE;
+            }
+            node = node.children[child];
+            depth += edge.length();
+        }
+        return node.top;
+    }
+}
@@ -0,0 +1,84 @@
+package com.twm.bot.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Folds texts that a user would call "the same question" into one key: NFKC (full-width letters, digits and
+ * punctuation become half-width), lower case, no whitespace or punctuation, and Traditional Chinese characters
+ * replaced by their Simplified form from {@code text/traditional-simplified.txt}. "如何重設 Wi-Fi 密碼？" and
+ * "如何重设wifi密码" get the same key.
+ */
+public final class TextNormalizer {
+
+    private static final String TABLE = "text/traditional-simplified.txt";
+
+    private static final class Table {
+        static final Map<Integer, Integer> TRADITIONAL_TO_SIMPLIFIED = load();
+    }
+
+    private TextNormalizer() {
+    }
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String folded = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+        Map<Integer, Integer> table = Table.TRADITIONAL_TO_SIMPLIFIED;
+        StringBuilder key = new StringBuilder(folded.length());
+        folded.codePoints().forEach(codePoint -> {
+            if (!Character.isWhitespace(codePoint) && !Character.isSpaceChar(codePoint) && !isPunctuation(codePoint)) {
+                key.appendCodePoint(table.getOrDefault(codePoint, codePoint));
+            }
+        });
+        return key.toString();
+    }
+
+    private static boolean isPunctuation(int codePoint) {
+        return switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                 Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION, Character.FINAL_QUOTE_PUNCTUATION,
+                 Character.OTHER_PUNCTUATION, Character.CONTROL, Character.FORMAT -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Reads pairs like {@code 這这} (traditional first), separated by whitespace; {@code #} starts a comment line.
+     */
+    private static Map<Integer, Integer> load() {
+        InputStream in = TextNormalizer.class.getClassLoader().getResourceAsStream(TABLE);
+        if (in == null) {
+            throw new IllegalStateException("Missing resource " + TABLE);
+        }
+        Map<Integer, Integer> table = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                for (String pair : line.split("\\s+")) {
+                    int[] codePoints = pair.codePoints().toArray();
+                    if (codePoints.length != 2) {
+                        throw new IllegalStateException("Malformed pair '" + pair + "' in " + TABLE);
+                    }
+                    table.put(codePoints[0], codePoints[1]);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return table;
+    }
+}
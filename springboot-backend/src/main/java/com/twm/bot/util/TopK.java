@@ -0,0 +1,49 @@
+package com.twm.bot.util;
+
+/**
+ * Keeps the {@code k} best-scoring rows seen so far, best first. Meant for small k over a scan: insertion into two
+ * primitive arrays, no boxing and no allocation per offer.
+ */
+public final class TopK {
+
+    private final int[] rows;
+    private final float[] scores;
+    private int size;
+
+    public TopK(int k) {
+        this.rows = new int[Math.max(0, k)];
+        this.scores = new float[Math.max(0, k)];
+    }
+
+    /**
+     * @param score higher is better
+     */
+    public void offer(int row, float score) {
+        int k = rows.length;
+        if (size < k) {
+            size++;
+        } else if (k == 0 || score <= scores[k - 1]) {
+            return;
+        }
+        int position = size - 1;
+        while (position > 0 && scores[position - 1] < score) {
+            scores[position] = scores[position - 1];
+            rows[position] = rows[position - 1];
+            position--;
+        }
+        scores[position] = score;
+        rows[position] = row;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int row(int rank) {
+        return rows[rank];
+    }
+
+    public float score(int rank) {
+        return scores[rank];
+    }
+}
@@ -0,0 +1,99 @@
+package com.twm.bot.util;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Small helpers for dense float vectors (embeddings).
+ */
+public final class VectorMath {
+
+    private VectorMath() {
+    }
+
+    public static float dot(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Dot product of {@code query} with the row of a row-major matrix starting at {@code offset}. Four independent
+     * accumulators let the JIT pipeline the multiply-adds (float sums can't be reordered for it).
+     */
+    public static float dot(float[] query, float[] vectors, int offset) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = query.length - 3;
+        for (; i < bound; i += 4) {
+            s0 += query[i] * vectors[offset + i];
+            s1 += query[i + 1] * vectors[offset + i + 1];
+            s2 += query[i + 2] * vectors[offset + i + 2];
+            s3 += query[i + 3] * vectors[offset + i + 3];
+        }
+        for (; i < query.length; i++) {
+            s0 += query[i] * vectors[offset + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    public static float dot(float[] query, FloatBuffer vectors, int offset) {
+        float sum = 0f;
+        for (int i = 0; i < query.length; i++) {
+            sum += query[i] * vectors.get(offset + i);
+        }
+        return sum;
+    }
+
+    public static float squaredDistance(float[] query, float[] vectors, int offset) {
+        float sum = 0f;
+        for (int i = 0; i < query.length; i++) {
+            float diff = query[i] - vectors[offset + i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    public static float squaredDistance(float[] query, FloatBuffer vectors, int offset) {
+        float sum = 0f;
+        for (int i = 0; i < query.length; i++) {
+            float diff = query[i] - vectors.get(offset + i);
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    public static float norm(float[] v) {
+        return (float) Math.sqrt(dot(v, v));
+    }
+
+    public static float cosine(float[] a, float[] b) {
+        float denominator = norm(a) * norm(b);
+        return denominator == 0f ? 0f : dot(a, b) / denominator;
+    }
+
+    /**
+     * @return a unit-length copy of {@code v} (or a zero vector if {@code v} is zero)
+     */
+    public static float[] normalize(float[] v) {
+        float norm = norm(v);
+        float[] normalized = new float[v.length];
+        if (norm == 0f) {
+            return normalized;
+        }
+        for (int i = 0; i < v.length; i++) {
+            normalized[i] = v[i] / norm;
+        }
+        return normalized;
+    }
+
+    /**
+     * Keeps the first {@code dimensions} components and re-normalizes. For text-embedding-3 models this is what the
+     * API returns when asked for a shorter vector with the {@code dimensions} parameter.
+     */
+    public static float[] shorten(float[] v, int dimensions) {
+        return normalize(Arrays.copyOf(v, Math.min(dimensions, v.length)));
+    }
+}
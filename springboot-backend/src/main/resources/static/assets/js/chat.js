@@ -75,6 +75,8 @@ function switchToAgentChannel(switchChatSessionId) {
 
 function onError(error) {
     console.log('Could not connect to WebSocket server. Please refresh this page to try again!');
+    // 連線中斷時不會再收到 END，下一則回覆要從新的訊息框開始
+    abandonBotStream();
 }
 
 function sendMessage(content) {
@@ -92,6 +94,8 @@ function sendMessage(content) {
         };
         console.log('Sending message:', chatMessage);
         stompClient.send("/app/chat.sendMessage", {}, JSON.stringify(chatMessage));
+        // 上一輪若沒收到 END（例如發生錯誤），不要把這一輪的 CHUNK 接在它後面
+        abandonBotStream();
         displayUserMessage(messageContent);
         showLoadingStatus();
         $(".textareaBox textarea").val('');  // 清空輸入框
@@ -123,11 +127,48 @@ function onMessageReceived(payload) {
         displayFaqSuggestions(message.content.split('\n'));
     } else if (message.type === 'SUGGESTIONS') {
         displayInputSuggestions(message.content.split('\n'));
+    } else if (message.type === 'CHUNK') {
+        appendBotChunk(message.content);
+    } else if (message.type === 'END') {
+        finishBotStream(message.content);
     } else {
         displayBotMessage(message.content);
     }
 }
 
+// 串流中的 Bot 訊息（收到 CHUNK 時逐段累加，收到 END 時以完整內容取代）
+let streamingBotMessage = null;
+let streamingBotContent = '';
+
+function appendBotChunk(chunk) {
+    if (!streamingBotMessage) {
+        streamingBotMessage = $("<li class='msg'><i class='avatar'></i><div class='dialog'><div class='content'></div><time>" + getCurrentTime() + "</time></div></li>");
+        streamingBotContent = '';
+        $(".chat").append(streamingBotMessage);
+    }
+    streamingBotContent += chunk;
+    streamingBotMessage.find('.content').html(streamingBotContent);
+    scrollDown();
+}
+
+function finishBotStream(content) {
+    if (streamingBotMessage) {
+        streamingBotMessage.find('.content').html(content);
+        scrollDown();
+    } else {
+        // 沒有串流片段（例如 FAQ 命中）時直接顯示完整回覆
+        displayBotMessage(content);
+    }
+    streamingBotMessage = null;
+    streamingBotContent = '';
+}
+
+// 放棄未完成的串流訊息：已顯示的內容保留，之後的 CHUNK 會開始新的訊息框
+function abandonBotStream() {
+    streamingBotMessage = null;
+    streamingBotContent = '';
+}
+
 function displayInputSuggestions(suggestions) {
     const suggestionElement = $("#suggestions");  // 定位到 `#suggestions` 區域
     suggestionElement.empty();  // 清空當前內容
@@ -0,0 +1,156 @@
+package com.twm.bot.controller;
+
+import com.twm.bot.model.ChatMessage;
+import com.twm.bot.model.faq.FAQ;
+import com.twm.bot.service.BotResponsePipeline;
+import com.twm.bot.service.ConversationSummaryService;
+import com.twm.bot.service.CustomerService;
+import com.twm.bot.service.ElasticsearchService;
+import com.twm.bot.service.InitialFaqService;
+import com.twm.bot.service.IntentClassifier;
+import com.twm.bot.service.LocalFaqIndex;
+import com.twm.bot.service.RedisService;
+import com.twm.bot.service.SearchService;
+import com.twm.bot.service.SuggestionCoalescer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.security.Principal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ChatControllerTest {
+
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void slowRetrievalStageDegradesToFaqSuggestions() throws Exception {
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        SearchService searchService = mock(SearchService.class);
+        when(searchService.exactMatchFAQ(anyString())).thenReturn(Optional.empty());
+        FAQ faq = new FAQ();
+        faq.setQuestion("如何重設密碼");
+        faq.setAnswer("請至會員中心重設密碼");
+        when(searchService.partialMatchFAQs(anyString())).thenReturn(List.of(faq));
+
+        IntentClassifier intentClassifier = mock(IntentClassifier.class);
+        when(intentClassifier.classify(anyString())).thenReturn(
+                new IntentClassifier.Prediction(IntentClassifier.GET_INFO, 1.0, IntentClassifier.Source.RULE));
+
+        CustomerService customerService = mock(CustomerService.class);
+        when(customerService.getKnowledgeBase(anyString(), anyString())).thenAnswer(invocation -> {
+            Thread.sleep(10_000);
+            return null;
+        });
+
+        BotResponsePipeline pipeline = new BotResponsePipeline(searchService, mock(LocalFaqIndex.class), intentClassifier,
+                customerService, executor, Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofMillis(100));
+
+        RedisService redisService = mock(RedisService.class);
+        SimpMessageSendingOperations stomp = mock(SimpMessageSendingOperations.class);
+        ChatController controller = new ChatController(redisService, stomp, customerService, searchService,
+                mock(ElasticsearchService.class), mock(RedisTemplate.class), pipeline, mock(ConversationSummaryService.class),
+                mock(InitialFaqService.class), mock(SuggestionCoalescer.class), false, Duration.ofSeconds(30));
+
+        ChatMessage message = new ChatMessage("user", "密碼忘了怎麼辦", ChatMessage.MessageType.CHAT);
+        message.setChatSessionId("session-1");
+        Principal principal = () -> "alice";
+        controller.handleMessage(message, principal);
+
+        ArgumentCaptor<Object> reply = ArgumentCaptor.forClass(Object.class);
+        verify(stomp).convertAndSendToUser(eq("alice"), eq("/queue/reply/session-1"), reply.capture());
+        String content = ((ChatMessage) reply.getValue()).getContent();
+        assertTrue(content.startsWith("目前 AI 客服忙碌中"), content);
+        assertTrue(content.contains("如何重設密碼"), content);
+        verify(customerService, never()).getAIResponseWithContext(anyString(), anyString(), any(), any());
+    }
+
+    @Test
+    void failedStreamingTurnStillEndsTheStream() throws Exception {
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        SearchService searchService = mock(SearchService.class);
+        when(searchService.exactMatchFAQ(anyString())).thenReturn(Optional.empty());
+        IntentClassifier intentClassifier = mock(IntentClassifier.class);
+        when(intentClassifier.classify(anyString())).thenReturn(
+                new IntentClassifier.Prediction(IntentClassifier.GET_INFO, 1.0, IntentClassifier.Source.RULE));
+        CustomerService customerService = mock(CustomerService.class);
+        when(customerService.getKnowledgeBase(anyString(), anyString())).thenThrow(new IllegalStateException("index corrupted"));
+
+        BotResponsePipeline pipeline = new BotResponsePipeline(searchService, mock(LocalFaqIndex.class), intentClassifier,
+                customerService, executor, Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(2));
+
+        SimpMessageSendingOperations stomp = mock(SimpMessageSendingOperations.class);
+        ChatController controller = new ChatController(mock(RedisService.class), stomp, customerService, searchService,
+                mock(ElasticsearchService.class), mock(RedisTemplate.class), pipeline, mock(ConversationSummaryService.class),
+                mock(InitialFaqService.class), mock(SuggestionCoalescer.class), true, Duration.ofSeconds(30));
+
+        ChatMessage message = new ChatMessage("user", "密碼忘了怎麼辦", ChatMessage.MessageType.CHAT);
+        message.setChatSessionId("session-1");
+        Principal principal = () -> "alice";
+        assertThrows(RuntimeException.class, () -> controller.handleMessage(message, principal));
+
+        ArgumentCaptor<Object> reply = ArgumentCaptor.forClass(Object.class);
+        verify(stomp).convertAndSendToUser(eq("alice"), eq("/queue/reply/session-1"), reply.capture());
+        ChatMessage end = (ChatMessage) reply.getValue();
+        assertEquals(ChatMessage.MessageType.END, end.getType());
+        assertTrue(end.getContent().startsWith("很抱歉"), end.getContent());
+    }
+
+    @Test
+    void saturatedPipelineExecutorDegradesToFaqSuggestions() throws Exception {
+        executor.initialize();
+        // A shut down executor rejects every task, like a saturated one
+        executor.shutdown();
+
+        SearchService searchService = mock(SearchService.class);
+        FAQ faq = new FAQ();
+        faq.setQuestion("如何重設密碼");
+        faq.setAnswer("請至會員中心重設密碼");
+        when(searchService.partialMatchFAQs(anyString())).thenReturn(List.of(faq));
+        CustomerService customerService = mock(CustomerService.class);
+
+        BotResponsePipeline pipeline = new BotResponsePipeline(searchService, mock(LocalFaqIndex.class), mock(IntentClassifier.class),
+                customerService, executor, Duration.ofSeconds(2), Duration.ofSeconds(2), Duration.ofSeconds(2));
+
+        SimpMessageSendingOperations stomp = mock(SimpMessageSendingOperations.class);
+        ChatController controller = new ChatController(mock(RedisService.class), stomp, customerService, searchService,
+                mock(ElasticsearchService.class), mock(RedisTemplate.class), pipeline, mock(ConversationSummaryService.class),
+                mock(InitialFaqService.class), mock(SuggestionCoalescer.class), false, Duration.ofSeconds(30));
+
+        ChatMessage message = new ChatMessage("user", "密碼忘了怎麼辦", ChatMessage.MessageType.CHAT);
+        message.setChatSessionId("session-1");
+        Principal principal = () -> "alice";
+        controller.handleMessage(message, principal);
+
+        ArgumentCaptor<Object> reply = ArgumentCaptor.forClass(Object.class);
+        verify(stomp).convertAndSendToUser(eq("alice"), eq("/queue/reply/session-1"), reply.capture());
+        String content = ((ChatMessage) reply.getValue()).getContent();
+        assertTrue(content.startsWith("目前 AI 客服忙碌中"), content);
+        verify(customerService, never()).getAIResponseWithContext(anyString(), anyString(), any(), any());
+    }
+}
@@ -0,0 +1,97 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.model.faq.FAQ;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalFaqIndexTest {
+
+    private final ElasticsearchService elasticsearchService = mock(ElasticsearchService.class);
+    private final LocalFaqIndex index = new LocalFaqIndex(elasticsearchService, mock(StringRedisTemplate.class),
+            new ObjectMapper(), new SimpleMeterRegistry(), true, 10, 1000);
+
+    @Test
+    void servesExactAutocompleteAndPartialMatchesOnceLoaded() throws Exception {
+        assertFalse(index.isReady());
+        when(elasticsearchService.getAllFAQs(anyInt())).thenReturn(List.of(
+                hit("1", "如何修改 Wi-Fi 密碼"),
+                hit("2", "Wi-Fi 訊號很弱怎麼辦"),
+                hit("3", "智慧攝影機如何安裝")));
+        index.refresh();
+
+        assertTrue(index.isReady());
+        assertEquals(3, index.size());
+        assertEquals("如何修改 Wi-Fi 密碼", index.exactMatch("如何修改wifi密碼？").orElseThrow().getQuestion());
+        assertEquals(List.of("Wi-Fi 訊號很弱怎麼辦"), questions(index.autocomplete("wi-fi 訊", 10)));
+        assertEquals("如何修改 Wi-Fi 密碼", index.partialMatch("wifi密碼", 10).get(0).getQuestion());
+    }
+
+    @Test
+    void changesAppliedDuringARefreshSurviveTheSwap() throws Exception {
+        when(elasticsearchService.getAllFAQs(anyInt())).thenReturn(List.of(hit("1", "如何修改 Wi-Fi 密碼")));
+        index.refresh();
+
+        // The reload reads Elasticsearch before these writes land, so its result has neither of them
+        when(elasticsearchService.getAllFAQs(anyInt())).thenAnswer(invocation -> {
+            index.publish(List.of(
+                    new LocalFaqIndex.Change("2", faq("智慧門鎖電池沒電怎麼辦")),
+                    new LocalFaqIndex.Change("1", null)));
+            return List.of(hit("1", "如何修改 Wi-Fi 密碼"));
+        });
+        index.refresh();
+
+        assertEquals(1, index.size());
+        assertTrue(index.exactMatch("智慧門鎖電池沒電怎麼辦").isPresent());
+        assertFalse(index.exactMatch("如何修改 Wi-Fi 密碼").isPresent());
+        assertEquals(List.of("智慧門鎖電池沒電怎麼辦"), questions(index.autocomplete("智慧", 10)));
+    }
+
+    @Test
+    void changesPublishedBeforeTheFirstLoadAreKeptToo() throws Exception {
+        when(elasticsearchService.getAllFAQs(anyInt())).thenAnswer(invocation -> {
+            index.publish(List.of(new LocalFaqIndex.Change("2", faq("MOD 沒有畫面怎麼辦"))));
+            return List.of(hit("1", "如何修改 Wi-Fi 密碼"));
+        });
+        index.refresh();
+
+        assertEquals(2, index.size());
+        assertTrue(index.exactMatch("mod沒有畫面怎麼辦").isPresent());
+    }
+
+    @Test
+    void failedRefreshKeepsThePreviousCopy() throws Exception {
+        when(elasticsearchService.getAllFAQs(anyInt())).thenReturn(List.of(hit("1", "如何修改 Wi-Fi 密碼")));
+        index.refresh();
+        when(elasticsearchService.getAllFAQs(anyInt())).thenThrow(new IllegalStateException("cluster unavailable"));
+        index.refresh();
+
+        assertTrue(index.isReady());
+        assertTrue(index.exactMatch("如何修改 Wi-Fi 密碼").isPresent());
+    }
+
+    private static ElasticsearchService.Hit<FAQ> hit(String id, String question) {
+        return new ElasticsearchService.Hit<>(id, 1f, faq(question));
+    }
+
+    private static FAQ faq(String question) {
+        FAQ faq = new FAQ();
+        faq.setQuestion(question);
+        faq.setAnswer("answer to " + question);
+        return faq;
+    }
+
+    private static List<String> questions(List<FAQ> faqs) {
+        return faqs.stream().map(FAQ::getQuestion).toList();
+    }
+}
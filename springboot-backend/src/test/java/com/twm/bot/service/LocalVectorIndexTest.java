@@ -0,0 +1,36 @@
+package com.twm.bot.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalVectorIndexTest {
+
+    @Test
+    void emptyCollectionAnswersEverySearchWithNoHits() {
+        for (LocalVectorIndex.Quantization quantization : LocalVectorIndex.Quantization.values()) {
+            MilvusService milvusService = mock(MilvusService.class);
+            when(milvusService.getPrimaryKeyField()).thenReturn("id");
+            when(milvusService.queryKnowledgeBase(anyList(), anyLong(), anyLong())).thenReturn(List.of());
+            LocalVectorIndex index = new LocalVectorIndex(milvusService, mock(KnowledgeBaseVersionService.class),
+                    new SimpleMeterRegistry(), true, LocalVectorIndex.Metric.COSINE, quantization, true, 4, 1000,
+                    Duration.ofMinutes(10));
+
+            index.refresh();
+
+            assertTrue(index.isReady(), quantization.name());
+            assertEquals(0, index.size());
+            assertEquals(List.of(), index.search(new float[]{0.6f, 0.8f, 0f}, 5));
+            assertEquals(List.of(), index.search(new float[]{1f, 0f}, 5, List.of("mod")));
+        }
+    }
+}
@@ -0,0 +1,431 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.twm.bot.model.KnowledgeChunk;
+import com.twm.bot.model.RetrievedContext;
+import com.twm.bot.util.VectorMath;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.milvus.v2.service.vector.response.QueryResp;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * Replays the labelled queries in {@code benchmark/queries.json} through {@link CustomerService#getKnowledgeBase} and
+ * the answer path, against the knowledge base in {@code benchmark/knowledge-base.json}, without network access.
+ * <p>
+ * Retrieval, context post-processing, the local vector index and prompt assembly are the real classes, configured
+ * from application.properties (any key can be overridden with {@code -D}, e.g. {@code -Dretrieval.hybrid.rrf-k=30}
+ * or {@code -Dknowledge-base.local-index.quantization=INT8}). Stand-ins replace the network:
+ * <ul>
+ *     <li>OpenAI embeddings: vectors recorded in {@code benchmark/embeddings.json} when that file exists (see
+ *     {@link #recordEmbeddings()}), otherwise a hashed character-bigram embedding, which is lexical but deterministic.
+ *     Together with the bigram lexical stand-in both retrievers then measure the same lexical signal, so such a run
+ *     only guards the pipeline against regressions; its report is marked {@code "qualityMeasurement": false}</li>
+ *     <li>Milvus: the local vector index, loaded from the fixture rows</li>
+ *     <li>Elasticsearch BM25: character-bigram overlap with question and answer</li>
+ *     <li>chat completion: a fixed answer; the prompt it would have been sent is counted with the real tokenizer</li>
+ * </ul>
+ * Reports recall@k, MRR, per-stage latency percentiles and prompt tokens on stdout and in
+ * {@code target/benchmark/retrieval-report.json}. Run with {@code mvn test -Pbenchmark}.
+ */
+@Tag("benchmark")
+class RetrievalBenchmarkTest {
+
+    private static final int STAND_IN_DIMENSION = 256;
+    private static final String CHAT_SESSION_ID = "benchmark";
+
+    record KnowledgeRow(String id, String content, String answer) {
+        // Same text ingestion embeds for a row
+        String text() {
+            return answer.isEmpty() ? content : content + "\n" + answer;
+        }
+    }
+
+    record LabelledQuery(String query, List<String> relevant) {
+    }
+
+    record RecordedEmbeddings(String model, int dimensions, Map<String, float[]> embeddings) {
+    }
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, Queue<Long>> stageNanos = new ConcurrentHashMap<>();
+    private final List<Integer> promptTokens = new ArrayList<>();
+    private Properties properties;
+    private List<KnowledgeRow> knowledgeBase;
+    private List<LabelledQuery> queries;
+    private RecordedEmbeddings recorded;
+    private ThreadPoolTaskExecutor executor;
+    private CustomerService customerService;
+    private int topK;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        properties = PropertiesLoaderUtils.loadProperties(new ClassPathResource("application.properties"));
+        knowledgeBase = read("benchmark/knowledge-base.json", new TypeReference<List<KnowledgeRow>>() {});
+        queries = read("benchmark/queries.json", new TypeReference<List<LabelledQuery>>() {});
+        recorded = new ClassPathResource("benchmark/embeddings.json").exists()
+                ? read("benchmark/embeddings.json", new TypeReference<RecordedEmbeddings>() {})
+                : null;
+        topK = intProperty("retrieval.hybrid.top-k", 5);
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        TokenCounter tokenCounter = new TokenCounter(property("openai.tokenizer.encoding", "o200k_base"));
+
+        OpenAIService openAIService = mock(OpenAIService.class);
+        when(openAIService.getEmbedding(anyString()))
+                .thenAnswer(invocation -> time("embedding", () -> embedding(invocation.getArgument(0))));
+        when(openAIService.getChatCompletion(anyList())).thenAnswer(invocation -> {
+            List<Map<String, String>> messages = invocation.getArgument(0);
+            synchronized (promptTokens) {
+                promptTokens.add(tokenCounter.countMessages(messages));
+            }
+            return "<p>benchmark answer</p>";
+        });
+
+        MilvusService milvusService = mock(MilvusService.class);
+        when(milvusService.getPrimaryKeyField()).thenReturn("id");
+        when(milvusService.queryKnowledgeBase(anyList(), anyLong(), anyLong())).thenAnswer(invocation -> {
+            long offset = invocation.getArgument(1);
+            long limit = invocation.getArgument(2);
+            return knowledgeBase.stream().skip(offset).limit(limit).map(this::toQueryResult).toList();
+        });
+
+        KnowledgeBaseVersionService versionService = mock(KnowledgeBaseVersionService.class);
+        when(versionService.current()).thenReturn(1L);
+
+        LocalVectorIndex localVectorIndex = spy(new LocalVectorIndex(milvusService, versionService, meterRegistry, true,
+                LocalVectorIndex.Metric.valueOf(property("knowledge-base.local-index.metric", "COSINE")),
+                LocalVectorIndex.Quantization.valueOf(property("knowledge-base.local-index.quantization", "NONE")),
+                Boolean.parseBoolean(property("knowledge-base.local-index.rescore", "true")),
+                intProperty("knowledge-base.local-index.oversample", 4),
+                1000, Duration.ofHours(1)));
+        localVectorIndex.refresh();
+        assertTrue(localVectorIndex.isReady(), "local vector index failed to load the fixture");
+        doAnswer(invocation -> time("vector", invocation::callRealMethod))
+                .when(localVectorIndex).search(any(float[].class), anyInt(), anyList());
+
+        SearchService searchService = mock(SearchService.class);
+        when(searchService.fullTextSearchFAQs(anyString(), anyInt()))
+                .thenAnswer(invocation -> time("lexical", () -> lexicalSearch(invocation.getArgument(0), invocation.getArgument(1))));
+
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(4);
+        executor.initialize();
+
+        HybridRetriever hybridRetriever = new HybridRetriever(openAIService, milvusService, localVectorIndex, searchService,
+                executor, meterRegistry,
+                Boolean.parseBoolean(property("retrieval.hybrid.enabled", "true")),
+                intProperty("retrieval.hybrid.rrf-k", 60),
+                topK,
+                intProperty("retrieval.hybrid.candidates", 10),
+                Float.parseFloat(property("retrieval.hybrid.min-vector-score", "0.3")),
+                Float.parseFloat(property("retrieval.hybrid.max-vector-distance", "1.4")),
+                Float.parseFloat(property("retrieval.hybrid.min-lexical-score", "1.0")),
+                Float.parseFloat(property("retrieval.hybrid.min-relative-score", "0.4")),
+                Duration.ofSeconds(1));
+        ContextPostProcessor contextPostProcessor = spy(new ContextPostProcessor(tokenCounter, meterRegistry,
+                Double.parseDouble(property("retrieval.context.max-duplicate-similarity", "0.8")),
+                intProperty("retrieval.context.max-chunk-tokens", 400)));
+        doAnswer(invocation -> time("context", invocation::callRealMethod))
+                .when(contextPostProcessor).process(anyList());
+
+        RedisService redisService = mock(RedisService.class);
+        customerService = new CustomerService(openAIService, hybridRetriever, contextPostProcessor, redisService,
+                mock(IntentClassifier.class),
+                new SemanticAnswerCache(versionService, meterRegistry, false, 0.95, Duration.ofHours(6), 2000),
+                new PromptBuilder(tokenCounter, meterRegistry, intProperty("openai.prompt.max-tokens", 12000)),
+                mock(ConversationSummaryService.class),
+                new KnowledgeDomainResolver(redisService, false, Map.of(), "general", Duration.ofMinutes(30)));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void retrievalQualityAndLatency() throws Throwable {
+        // One untimed pass so class loading and JIT warm-up don't count
+        for (LabelledQuery query : queries) {
+            customerService.getAIResponseWithContext(query.query(), CHAT_SESSION_ID, customerService.getKnowledgeBase(query.query()), null);
+        }
+        stageNanos.clear();
+        promptTokens.clear();
+
+        int iterations = intProperty("benchmark.iterations", 5);
+        double recall = 0;
+        double reciprocalRank = 0;
+        for (int iteration = 0; iteration < iterations; iteration++) {
+            for (LabelledQuery query : queries) {
+                RetrievedContext context = time("retrieval", () -> customerService.getKnowledgeBase(query.query()));
+                time("answer", () -> customerService.getAIResponseWithContext(query.query(), CHAT_SESSION_ID, context, null));
+                if (iteration == 0) {
+                    List<String> ranked = rankedIds(context.getChunks());
+                    recall += recallAtK(ranked, query.relevant());
+                    reciprocalRank += reciprocalRank(ranked, query.relevant());
+                }
+            }
+        }
+
+        double recallAtK = recall / queries.size();
+        double mrr = reciprocalRank / queries.size();
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("queries", queries.size());
+        report.put("knowledgeBaseRows", knowledgeBase.size());
+        report.put("embeddings", recorded != null
+                ? "recorded " + recorded.model() + " (" + recorded.dimensions() + " dimensions)"
+                : "stand-in hashed character bigrams");
+        report.put("qualityMeasurement", recorded != null);
+        if (recorded == null) {
+            report.put("note", "Stand-in embeddings are lexical like the BM25 stand-in: recall and MRR below say nothing"
+                    + " about real vector retrieval quality. Record embeddings with recordEmbeddings first.");
+        }
+        report.put("iterations", iterations);
+        report.put("k", topK);
+        report.put("recallAtK", recallAtK);
+        report.put("mrr", mrr);
+        Map<String, Map<String, Double>> stages = new LinkedHashMap<>();
+        for (String stage : List.of("retrieval", "embedding", "vector", "lexical", "context", "answer")) {
+            stages.put(stage, percentilesMillis(stageNanos.getOrDefault(stage, new ConcurrentLinkedQueue<>())));
+        }
+        report.put("stageLatencyMillis", stages);
+        report.put("promptTokens", summary(promptTokens.stream().map(Integer::doubleValue).toList()));
+
+        Path output = Path.of("target", "benchmark", "retrieval-report.json");
+        Files.createDirectories(output.getParent());
+        objectMapper.enable(SerializationFeature.INDENT_OUTPUT).writeValue(output.toFile(), report);
+        System.out.println(objectMapper.writeValueAsString(report));
+        if (recorded == null) {
+            System.out.println("WARNING: no benchmark/embeddings.json, recall and MRR are NOT a retrieval quality measurement");
+        }
+
+        // Floors for the fixture, so a change that breaks retrieval fails the benchmark run
+        assertTrue(recallAtK >= 0.8, "recall@" + topK + " was " + recallAtK);
+        assertTrue(mrr >= 0.7, "MRR was " + mrr);
+    }
+
+    /**
+     * Records real embeddings for every fixture text into {@code src/test/resources/benchmark/embeddings.json}, to be
+     * committed with the fixture. Reduced to {@code benchmark.record.dimensions} (256 by default) so the file stays
+     * small; text-embedding-3 vectors keep their ranking well at that size. Needs network access and an API key, so
+     * it only runs when OPENAI_API_KEY is set:
+     * {@code OPENAI_API_KEY=... mvn test -Pbenchmark -Dtest=RetrievalBenchmarkTest#recordEmbeddings}.
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "OPENAI_API_KEY", matches = ".+")
+    void recordEmbeddings() throws Exception {
+        int dimensions = intProperty("benchmark.record.dimensions", 256);
+        OpenAIService openAIService = new OpenAIService(HttpClients.createDefault(), mock(EmbeddingCache.class),
+                new SimpleMeterRegistry(), CircuitBreaker.ofDefaults("benchmark"), CircuitBreaker.ofDefaults("benchmark-batch"),
+                false, 64, Duration.ofMillis(5), 1, Duration.ofSeconds(60), false, Duration.ofSeconds(2), 2, dimensions);
+        ReflectionTestUtils.setField(openAIService, "apiKey", System.getenv("OPENAI_API_KEY"));
+
+        Set<String> texts = new LinkedHashSet<>();
+        knowledgeBase.forEach(row -> texts.add(row.text()));
+        queries.forEach(query -> texts.add(query.query()));
+        List<String> textList = new ArrayList<>(texts);
+        Map<String, float[]> embeddings = new LinkedHashMap<>();
+        for (int from = 0; from < textList.size(); from += 64) {
+            List<String> batch = textList.subList(from, Math.min(textList.size(), from + 64));
+            List<float[]> vectors = openAIService.getBatchEmbeddings(batch, dimensions);
+            for (int i = 0; i < batch.size(); i++) {
+                embeddings.put(batch.get(i), vectors.get(i));
+            }
+        }
+        openAIService.close();
+
+        Path output = Path.of("src", "test", "resources", "benchmark", "embeddings.json");
+        Files.createDirectories(output.getParent());
+        objectMapper.writeValue(output.toFile(), new RecordedEmbeddings("text-embedding-3-small", dimensions, embeddings));
+        System.out.println("Recorded " + embeddings.size() + " embeddings to " + output.toAbsolutePath());
+    }
+
+    private float[] embedding(String text) {
+        if (recorded == null) {
+            return standInEmbedding(text);
+        }
+        float[] vector = recorded.embeddings().get(text);
+        if (vector == null) {
+            // Mixing recorded and stand-in vectors would compare unrelated spaces
+            throw new IllegalStateException("No recorded embedding for \"" + text + "\", re-run recordEmbeddings");
+        }
+        return vector;
+    }
+
+    // Signed feature hashing of character unigrams and bigrams; similar wording gives similar vectors
+    private static float[] standInEmbedding(String text) {
+        String normalized = normalize(text);
+        float[] vector = new float[STAND_IN_DIMENSION];
+        for (int i = 0; i < normalized.length(); i++) {
+            addFeature(vector, normalized.substring(i, i + 1), 0.5f);
+            if (i + 1 < normalized.length()) {
+                addFeature(vector, normalized.substring(i, i + 2), 1f);
+            }
+        }
+        return VectorMath.normalize(vector);
+    }
+
+    private static void addFeature(float[] vector, String feature, float weight) {
+        int hash = feature.hashCode();
+        vector[Math.floorMod(hash, STAND_IN_DIMENSION)] += ((hash >>> 16) & 1) == 0 ? weight : -weight;
+    }
+
+    private List<KnowledgeChunk> lexicalSearch(String query, int size) {
+        Set<String> queryBigrams = bigrams(query);
+        List<KnowledgeChunk> hits = new ArrayList<>();
+        for (KnowledgeRow row : knowledgeBase) {
+            // Question matches weigh double, like question^2 in the multi_match query
+            float score = 2 * overlap(queryBigrams, bigrams(row.content())) + overlap(queryBigrams, bigrams(row.answer()));
+            if (score > 0) {
+                hits.add(new KnowledgeChunk("faq:" + row.id(), row.content(), row.answer(), score));
+            }
+        }
+        hits.sort((a, b) -> Float.compare(b.getScore(), a.getScore()));
+        return hits.subList(0, Math.min(size, hits.size()));
+    }
+
+    private static Set<String> bigrams(String text) {
+        String normalized = normalize(text);
+        Set<String> bigrams = new LinkedHashSet<>();
+        for (int i = 0; i + 2 <= normalized.length(); i++) {
+            bigrams.add(normalized.substring(i, i + 2));
+        }
+        return bigrams;
+    }
+
+    private static int overlap(Set<String> a, Set<String> b) {
+        int shared = 0;
+        for (String bigram : a) {
+            if (b.contains(bigram)) {
+                shared++;
+            }
+        }
+        return shared;
+    }
+
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT).replaceAll("[\\s\\p{P}]+", "");
+    }
+
+    private QueryResp.QueryResult toQueryResult(KnowledgeRow row) {
+        List<Float> embedding = new ArrayList<>();
+        for (float value : embedding(row.text())) {
+            embedding.add(value);
+        }
+        Map<String, Object> entity = new HashMap<>();
+        entity.put("id", Long.parseLong(row.id()));
+        entity.put("content", row.content());
+        entity.put("answer", row.answer());
+        entity.put("embedding", embedding);
+        return QueryResp.QueryResult.builder().entity(entity).build();
+    }
+
+    // Vector hits carry the Milvus key, lexical hits "faq:<id>"; both name the same fixture row
+    private static List<String> rankedIds(List<KnowledgeChunk> chunks) {
+        return chunks.stream().map(chunk -> chunk.getId().replaceFirst("^faq:", "")).toList();
+    }
+
+    private double recallAtK(List<String> ranked, List<String> relevant) {
+        List<String> top = ranked.subList(0, Math.min(topK, ranked.size()));
+        return (double) relevant.stream().filter(top::contains).count() / relevant.size();
+    }
+
+    private static double reciprocalRank(List<String> ranked, List<String> relevant) {
+        for (int rank = 0; rank < ranked.size(); rank++) {
+            if (relevant.contains(ranked.get(rank))) {
+                return 1.0 / (rank + 1);
+            }
+        }
+        return 0;
+    }
+
+    @FunctionalInterface
+    private interface Stage<T> {
+        T call() throws Throwable;
+    }
+
+    private <T> T time(String stage, Stage<T> task) throws Throwable {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            stageNanos.computeIfAbsent(stage, key -> new ConcurrentLinkedQueue<>()).add(System.nanoTime() - start);
+        }
+    }
+
+    private static Map<String, Double> percentilesMillis(Queue<Long> nanos) {
+        return summary(nanos.stream().map(value -> value / 1_000_000.0).toList());
+    }
+
+    private static Map<String, Double> summary(List<Double> values) {
+        double[] sorted = values.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        Map<String, Double> summary = new LinkedHashMap<>();
+        if (sorted.length == 0) {
+            return summary;
+        }
+        summary.put("mean", values.stream().mapToDouble(Double::doubleValue).average().orElse(0));
+        summary.put("p50", percentile(sorted, 0.50));
+        summary.put("p95", percentile(sorted, 0.95));
+        summary.put("p99", percentile(sorted, 0.99));
+        summary.put("max", sorted[sorted.length - 1]);
+        return summary;
+    }
+
+    private static double percentile(double[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+
+    private String property(String name, String defaultValue) {
+        return System.getProperty(name, properties.getProperty(name, defaultValue));
+    }
+
+    private int intProperty(String name, int defaultValue) {
+        return Integer.parseInt(property(name, String.valueOf(defaultValue)));
+    }
+
+    private <T> T read(String resource, TypeReference<T> type) throws IOException {
+        try (InputStream inputStream = new ClassPathResource(resource).getInputStream()) {
+            return objectMapper.readValue(inputStream, type);
+        }
+    }
+}
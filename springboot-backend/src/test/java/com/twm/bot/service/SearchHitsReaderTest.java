@@ -0,0 +1,160 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.model.faq.FAQ;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchHitsReaderTest {
+
+    private final SearchHitsReader reader = new SearchHitsReader(new ObjectMapper());
+
+    @Test
+    void readsHitsOfASearchResponse() throws IOException {
+        String body = """
+                {
+                  "took": 3,
+                  "timed_out": false,
+                  "_shards": {"total": 1, "successful": 1, "skipped": 0, "failed": 0},
+                  "hits": {
+                    "total": {"value": 2, "relation": "eq"},
+                    "max_score": 5.2,
+                    "hits": [
+                      {"_index": "faq_index", "_id": "a1", "_score": 5.2,
+                       "_source": {"question": "如何修改 Wi-Fi 密碼", "answer": "登入路由器管理頁面修改"}},
+                      {"_index": "faq_index", "_id": "a2", "_score": 1.5,
+                       "_source": {"question": "Wi-Fi 訊號很弱怎麼辦", "answer": "調整路由器位置"}}
+                    ]
+                  }
+                }
+                """;
+
+        List<ElasticsearchService.Hit<FAQ>> hits = reader.readHits(stream(body), FAQ.class);
+
+        assertEquals(2, hits.size());
+        assertEquals("a1", hits.get(0).id());
+        assertEquals(5.2f, hits.get(0).score());
+        assertEquals("如何修改 Wi-Fi 密碼", hits.get(0).source().getQuestion());
+        assertEquals("調整路由器位置", hits.get(1).source().getAnswer());
+    }
+
+    @Test
+    void sourceMayComeBeforeIdAndScore() throws IOException {
+        String body = """
+                {"hits": {"hits": [
+                  {"_source": {"question": "智慧攝影機如何安裝", "answer": "參考安裝手冊"}, "_score": 2.0, "_id": "c1", "_index": "faq_index"}
+                ]}}
+                """;
+
+        ElasticsearchService.Hit<FAQ> hit = reader.readHits(stream(body), FAQ.class).get(0);
+
+        assertEquals("c1", hit.id());
+        assertEquals(2.0f, hit.score());
+        assertEquals("智慧攝影機如何安裝", hit.source().getQuestion());
+    }
+
+    @Test
+    void nullScoreOfASortedSearchReadsAsZero() throws IOException {
+        String body = """
+                {
+                  "took": 1,
+                  "timed_out": false,
+                  "hits": {
+                    "total": {"value": 10000, "relation": "gte"},
+                    "max_score": null,
+                    "hits": [
+                      {"_index": "faq_index", "_id": "p1", "_score": null,
+                       "_source": {"question": "如何查詢帳單", "answer": "至會員中心查詢"},
+                       "sort": [42, "p1"]},
+                      {"_index": "faq_index", "_id": "p2", "_score": null, "sort": [7, "p2"],
+                       "_source": {"question": "MOD 沒有畫面", "answer": "重新開機"}}
+                    ]
+                  }
+                }
+                """;
+
+        List<ElasticsearchService.Hit<FAQ>> hits = reader.readHits(stream(body), FAQ.class);
+
+        assertEquals(List.of("p1", "p2"), hits.stream().map(ElasticsearchService.Hit::id).toList());
+        assertEquals(0f, hits.get(0).score());
+        assertEquals("重新開機", hits.get(1).source().getAnswer());
+    }
+
+    @Test
+    void emptyHitsGiveAnEmptyList() throws IOException {
+        String body = """
+                {"took": 0, "timed_out": false, "_shards": {"total": 1, "successful": 1, "skipped": 0, "failed": 0},
+                 "hits": {"total": {"value": 0, "relation": "eq"}, "max_score": null, "hits": []}}
+                """;
+
+        assertTrue(reader.readHits(stream(body), FAQ.class).isEmpty());
+        assertTrue(reader.readHits(stream("{\"error\": {\"type\": \"index_not_found_exception\"}, \"status\": 404}"), FAQ.class).isEmpty());
+    }
+
+    @Test
+    void readsSourceOfAFoundDocument() throws IOException {
+        String body = """
+                {"_index": "faq_index", "_id": "a1", "_version": 3, "_seq_no": 8, "_primary_term": 1, "found": true,
+                 "_source": {"question": "如何修改 Wi-Fi 密碼", "answer": "登入路由器管理頁面修改"}}
+                """;
+
+        assertEquals("如何修改 Wi-Fi 密碼", reader.readSource(stream(body), FAQ.class).getQuestion());
+    }
+
+    @Test
+    void missingDocumentReadsAsNull() throws IOException {
+        String body = """
+                {"_index": "faq_index", "_id": "missing", "found": false}
+                """;
+
+        assertNull(reader.readSource(stream(body), FAQ.class));
+    }
+
+    @Test
+    void readsOptionsOfTheRequestedSuggestionAmongSeveral() throws IOException {
+        String body = """
+                {
+                  "took": 2,
+                  "timed_out": false,
+                  "_shards": {"total": 1, "successful": 1, "skipped": 0, "failed": 0},
+                  "hits": {"total": {"value": 0, "relation": "eq"}, "max_score": null, "hits": []},
+                  "suggest": {
+                    "answer-suggest": [
+                      {"text": "wi", "offset": 0, "length": 2, "options": [
+                        {"text": "wifi 設定", "_index": "faq_index", "_id": "x9", "_score": 9.0,
+                         "_source": {"question": "無關的問題", "answer": "無關的回答"}}
+                      ]}
+                    ],
+                    "question-suggest": [
+                      {"text": "wi", "offset": 0, "length": 2, "options": [
+                        {"text": "Wi-Fi 訊號很弱怎麼辦", "_index": "faq_index", "_id": "a2", "_score": 3.0,
+                         "_source": {"question": "Wi-Fi 訊號很弱怎麼辦", "answer": "調整路由器位置"}},
+                        {"text": "Wi-Fi 密碼", "_index": "faq_index", "_id": "a1", "_score": 1.0,
+                         "_source": {"question": "如何修改 Wi-Fi 密碼", "answer": "登入路由器管理頁面修改"}}
+                      ]}
+                    ]
+                  }
+                }
+                """;
+
+        List<ElasticsearchService.Hit<FAQ>> options = reader.readSuggestOptions(stream(body), "question-suggest", FAQ.class);
+
+        assertEquals(List.of("a2", "a1"), options.stream().map(ElasticsearchService.Hit::id).toList());
+        assertEquals(3.0f, options.get(0).score());
+        assertEquals("如何修改 Wi-Fi 密碼", options.get(1).source().getQuestion());
+        assertTrue(reader.readSuggestOptions(stream(body), "other-suggest", FAQ.class).isEmpty());
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,74 @@
+package com.twm.bot.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.twm.bot.model.faq.FAQ;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SearchServiceTest {
+
+    private final ElasticsearchService elasticsearchService = mock(ElasticsearchService.class);
+    // not loaded, so exact match goes to Elasticsearch
+    private final LocalFaqIndex localFaqIndex = mock(LocalFaqIndex.class);
+    private final SearchService searchService = new SearchService(elasticsearchService, new ObjectMapper(), localFaqIndex);
+
+    @Test
+    void exactMatchIgnoresWidthCaseScriptAndPunctuation() throws Exception {
+        when(elasticsearchService.searchFAQHits(anyString())).thenReturn(List.of(hit("如何重設 Wi-Fi 密碼？")));
+
+        assertEquals("如何重設 Wi-Fi 密碼？", searchService.exactMatchFAQ("如何重设wifi密码").orElseThrow().getQuestion());
+        assertTrue(searchService.exactMatchFAQ("如何重設ＷＩ－ＦＩ密碼").isPresent());
+    }
+
+    @Test
+    void questionThatOnlyContainsTheMessageIsNotAnExactMatch() throws Exception {
+        // match_phrase returns questions containing the message; none of them equals it
+        when(elasticsearchService.searchFAQHits(anyString())).thenReturn(List.of(
+                hit("如何重設 Wi-Fi 密碼"),
+                hit("忘記密碼怎麼辦")));
+
+        assertEquals(Optional.empty(), searchService.exactMatchFAQ("密碼"));
+    }
+
+    @Test
+    void exactMatchSkipsHitsUntilTheKeysAreEqual() throws Exception {
+        when(elasticsearchService.searchFAQHits(anyString())).thenReturn(List.of(
+                hit("如何重設 Wi-Fi 密碼"),
+                hit("重設密碼")));
+
+        assertEquals("重設密碼", searchService.exactMatchFAQ("重设密码！").orElseThrow().getQuestion());
+    }
+
+    @Test
+    void messageWithoutTextDoesNotQueryElasticsearch() throws Exception {
+        assertEquals(Optional.empty(), searchService.exactMatchFAQ(" ？！ "));
+        verify(elasticsearchService, never()).searchFAQHits(anyString());
+    }
+
+    @Test
+    void loadedLocalIndexAnswersInsteadOfElasticsearch() throws Exception {
+        FAQ faq = hit("重設密碼").source();
+        when(localFaqIndex.isReady()).thenReturn(true);
+        when(localFaqIndex.exactMatch("重设密码")).thenReturn(Optional.of(faq));
+
+        assertEquals(Optional.of(faq), searchService.exactMatchFAQ("重设密码"));
+        verify(elasticsearchService, never()).searchFAQHits(anyString());
+    }
+
+    private static ElasticsearchService.Hit<FAQ> hit(String question) {
+        FAQ faq = new FAQ();
+        faq.setQuestion(question);
+        faq.setAnswer("answer to " + question);
+        return new ElasticsearchService.Hit<>(question, 1f, faq);
+    }
+}
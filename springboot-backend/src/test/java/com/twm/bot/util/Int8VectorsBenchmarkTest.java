@@ -0,0 +1,111 @@
+package com.twm.bot.util;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Recall@5 and memory of int8 scalar quantization against exact float32 search, on synthetic clustered unit vectors
+ * shaped like text-embedding-3-small output. The same comparison on the real collection is served by
+ * GET /api/knowledge-base/local-index/quantization-report.
+ */
+@Tag("benchmark")
+class Int8VectorsBenchmarkTest {
+
+    private static final int DIMENSION = 1536;
+    private static final int ROWS = 3000;
+    private static final int CLUSTERS = 60;
+    private static final int QUERIES = 200;
+    private static final int TOP_K = 5;
+    private static final int OVERSAMPLE = 4;
+
+    @Test
+    void int8WithRescoringKeepsRecallAtFiveOfFloat32() {
+        Random random = new Random(7);
+        float[][] centers = new float[CLUSTERS][];
+        for (int c = 0; c < CLUSTERS; c++) {
+            centers[c] = gaussian(random, 1f);
+        }
+        float[] vectors = new float[ROWS * DIMENSION];
+        for (int row = 0; row < ROWS; row++) {
+            float[] center = centers[random.nextInt(CLUSTERS)];
+            float[] noise = gaussian(random, 0.6f);
+            float[] vector = new float[DIMENSION];
+            for (int i = 0; i < DIMENSION; i++) {
+                vector[i] = center[i] + noise[i];
+            }
+            System.arraycopy(VectorMath.normalize(vector), 0, vectors, row * DIMENSION, DIMENSION);
+        }
+        Int8Vectors quantized = Int8Vectors.quantize(vectors, DIMENSION);
+
+        double int8Recall = 0;
+        double rescoredRecall = 0;
+        for (int q = 0; q < QUERIES; q++) {
+            int source = random.nextInt(ROWS);
+            float[] query = new float[DIMENSION];
+            float[] noise = gaussian(random, 0.02f);
+            for (int i = 0; i < DIMENSION; i++) {
+                query[i] = vectors[source * DIMENSION + i] + noise[i];
+            }
+            query = VectorMath.normalize(query);
+
+            TopK exact = new TopK(TOP_K);
+            TopK approximate = new TopK(TOP_K);
+            TopK candidates = new TopK(TOP_K * OVERSAMPLE);
+            for (int row = 0; row < ROWS; row++) {
+                exact.offer(row, VectorMath.dot(query, vectors, row * DIMENSION));
+                float score = quantized.dot(query, row);
+                approximate.offer(row, score);
+                candidates.offer(row, score);
+            }
+            TopK rescored = new TopK(TOP_K);
+            for (int rank = 0; rank < candidates.size(); rank++) {
+                int row = candidates.row(rank);
+                rescored.offer(row, VectorMath.dot(query, vectors, row * DIMENSION));
+            }
+
+            Set<Integer> truth = rows(exact);
+            int8Recall += overlap(truth, rows(approximate));
+            rescoredRecall += overlap(truth, rows(rescored));
+        }
+        int8Recall /= QUERIES;
+        rescoredRecall /= QUERIES;
+
+        long float32Bytes = 4L * vectors.length;
+        // Re-scoring keeps the float32 originals too (off-heap), so int8+rescore costs int8 + float32 in total
+        System.out.printf("rows=%d dim=%d float32=%d KB int8=%d KB (%.1f%%) int8+rescore=%d KB (%.1f%%) "
+                        + "recall@5 int8=%.3f int8+rescore=%.3f%n",
+                ROWS, DIMENSION, float32Bytes / 1024, quantized.memoryBytes() / 1024,
+                100.0 * quantized.memoryBytes() / float32Bytes,
+                (quantized.memoryBytes() + float32Bytes) / 1024,
+                100.0 * (quantized.memoryBytes() + float32Bytes) / float32Bytes, int8Recall, rescoredRecall);
+
+        assertTrue(quantized.memoryBytes() < float32Bytes / 3, "int8 codes should take about a quarter of float32");
+        assertTrue(rescoredRecall >= 0.98, "recall@5 with exact re-scoring was " + rescoredRecall);
+    }
+
+    private static float[] gaussian(Random random, float sigma) {
+        float[] vector = new float[DIMENSION];
+        for (int i = 0; i < DIMENSION; i++) {
+            vector[i] = (float) random.nextGaussian() * sigma;
+        }
+        return vector;
+    }
+
+    private static Set<Integer> rows(TopK topK) {
+        Set<Integer> rows = new HashSet<>();
+        for (int rank = 0; rank < topK.size(); rank++) {
+            rows.add(topK.row(rank));
+        }
+        return rows;
+    }
+
+    private static double overlap(Set<Integer> truth, Set<Integer> found) {
+        return (double) found.stream().filter(truth::contains).count() / truth.size();
+    }
+}
@@ -0,0 +1,58 @@
+package com.twm.bot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NgramIndexTest {
+
+    private static final String[] QUESTIONS = {
+            "如何修改 wi-fi 密碼",
+            "智慧攝影機如何安裝",
+            "mesh wi-fi 路由器如何設定",
+            null,
+            "帳單密碼是什麼",
+    };
+
+    private final NgramIndex index = NgramIndex.build(QUESTIONS);
+
+    @Test
+    void cjkRunsGiveCharactersAndBigramsOtherRunsWordsAndBigrams() {
+        assertEquals(Set.of("密", "碼", "密碼", "wifi", "wi", "if", "fi"), NgramIndex.grams("WiFi密碼"));
+        assertEquals(Set.of("wi", "fi", "密", "碼", "密碼"), NgramIndex.grams("Wi-Fi 密碼？"));
+    }
+
+    @Test
+    void mixedCjkAndAsciiQueryMatchesOnSharedGrams() {
+        // "wifi" is written without the hyphen, yet shares "wi" and "fi" with the questions
+        List<Integer> rows = rows(index.search("wifi密碼", 10));
+        assertEquals(0, rows.get(0));
+        assertTrue(rows.containsAll(List.of(2, 4)), rows.toString());
+        assertTrue(!rows.contains(1) && !rows.contains(3), rows.toString());
+    }
+
+    @Test
+    void partialCjkQueryFindsTheQuestionContainingIt() {
+        assertEquals(List.of(1), rows(index.search("攝影機", 10)));
+    }
+
+    @Test
+    void queryWithoutSharedGramsMatchesNothing() {
+        assertEquals(0, index.search("退貨", 10).size());
+        assertEquals(0, index.search("？！", 10).size());
+        assertEquals(0, NgramIndex.build(new String[0]).search("密碼", 10).size());
+    }
+
+    private static List<Integer> rows(TopK topK) {
+        List<Integer> rows = new ArrayList<>();
+        for (int rank = 0; rank < topK.size(); rank++) {
+            rows.add(topK.row(rank));
+        }
+        return rows;
+    }
+}
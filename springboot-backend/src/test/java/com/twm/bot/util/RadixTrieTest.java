@@ -0,0 +1,55 @@
+package com.twm.bot.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Comparator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class RadixTrieTest {
+
+    // rows 0 and 4 share a key; "wi" and "fi" become edges of their own, "密碼" and "設定" edges below "wifi"
+    private static final String[] KEYS = {"wifi", "wifi密碼", "wifi設定", "wireless", "wifi", null, "攝影機安裝"};
+
+    private static final Comparator<Integer> LOWEST_ROW_FIRST = Integer::compare;
+
+    private final RadixTrie trie = RadixTrie.build(KEYS, LOWEST_ROW_FIRST, 10);
+
+    @Test
+    void prefixEndingMidEdgeReturnsTheWholeSubtree() {
+        assertArrayEquals(new int[]{0, 1, 2, 4}, trie.startingWith("wif"));
+        assertArrayEquals(new int[]{1}, trie.startingWith("wifi密"));
+        assertArrayEquals(new int[]{3}, trie.startingWith("wirel"));
+        assertArrayEquals(new int[]{6}, trie.startingWith("攝影"));
+    }
+
+    @Test
+    void prefixEndingOnANode() {
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, trie.startingWith("wi"));
+        assertArrayEquals(new int[]{0, 1, 2, 4}, trie.startingWith("wifi"));
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4, 6}, trie.startingWith(""));
+    }
+
+    @Test
+    void prefixLeavingTheTreeMatchesNothing() {
+        assertArrayEquals(new int[0], trie.startingWith("wix"));
+        assertArrayEquals(new int[0], trie.startingWith("wifx"));
+        assertArrayEquals(new int[0], trie.startingWith("wifi密碼嗎"));
+        assertArrayEquals(new int[0], trie.startingWith("x"));
+    }
+
+    @Test
+    void duplicateKeysAreBothKeptInRankOrder() {
+        RadixTrie reversed = RadixTrie.build(KEYS, LOWEST_ROW_FIRST.reversed(), 10);
+        assertArrayEquals(new int[]{4, 2, 1, 0}, reversed.startingWith("wifi"));
+    }
+
+    @Test
+    void eachPrefixKeepsOnlyTheBestK() {
+        Comparator<Integer> shortestFirst = Comparator.comparingInt((Integer row) -> KEYS[row].length())
+                .thenComparingInt(row -> row);
+        RadixTrie top2 = RadixTrie.build(KEYS, shortestFirst, 2);
+        assertArrayEquals(new int[]{0, 4}, top2.startingWith("wi"));
+        assertArrayEquals(new int[]{2}, top2.startingWith("wifi設"));
+    }
+}
@@ -0,0 +1,39 @@
+package com.twm.bot.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class TextNormalizerTest {
+
+    @Test
+    void fullWidthFoldsToHalfWidth() {
+        assertEquals(TextNormalizer.normalize("MOD 123"), TextNormalizer.normalize("ＭＯＤ　１２３"));
+        assertEquals("mod123", TextNormalizer.normalize("ＭＯＤ　１２３"));
+    }
+
+    @Test
+    void caseHyphensAndSpacesAreIgnored() {
+        assertEquals(TextNormalizer.normalize("wifi"), TextNormalizer.normalize("Wi-Fi"));
+        assertEquals(TextNormalizer.normalize("WIFI"), TextNormalizer.normalize("wi fi"));
+    }
+
+    @Test
+    void traditionalAndSimplifiedGetTheSameKey() {
+        assertEquals(TextNormalizer.normalize("重设"), TextNormalizer.normalize("重設"));
+        assertEquals(TextNormalizer.normalize("如何重设wifi密码"), TextNormalizer.normalize("如何重設 Wi-Fi 密碼？"));
+    }
+
+    @Test
+    void whitespaceAndPunctuationAreRemoved() {
+        assertEquals("如何重设wifi密码", TextNormalizer.normalize(" 如何「重設」\tWi-Fi 密碼？！\n"));
+        assertEquals("", TextNormalizer.normalize("？！。 ,.\u200b"));
+        assertEquals("", TextNormalizer.normalize(null));
+    }
+
+    @Test
+    void differentQuestionsKeepDifferentKeys() {
+        assertNotEquals(TextNormalizer.normalize("如何重設密碼"), TextNormalizer.normalize("如何重設 Wi-Fi 密碼"));
+    }
+}